@@ -0,0 +1,319 @@
+package planning;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import logist.config.ParserException;
+import logist.config.Parsers;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * A benchmark of the SLS kernels of Solution and Node, on seeded synthetic instances of the bundled topologies.
+ * For each kernel, topology, number of tasks and number of vehicles, it runs the kernel for a warmup
+ * period, then for a measurement period, and prints its throughput, the percentiles of its latency
+ * and the bytes it allocates per operation.
+ * It lives outside src/, so that it is never shipped with the agent. From the auction directory:
+ * <pre>
+ * javac -cp ../logist/logist.jar -sourcepath src:bench -d bench-bin bench/planning/Banco.java
+ * java -cp bench-bin:../logist/logist.jar planning.Banco [kernels=copy,bestNeighbour] [tasks=20,100] [warmup=500] ...
+ * </pre>
+ * Each parameter is a comma-separated list that replaces its default (see PARAMETERS).
+ */
+public class Banco {
+	private static final long SEED = 42;
+	private static final int CAPACITY = 30;
+	private static final int COSTPERKM = 5;
+	private static final int MAXWEIGHT = 10;
+	// How many latencies are kept for the percentiles: the last ones measured
+	private static final int MAXSAMPLES = 1 << 20;
+	private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final Map<String, String> PARAMETERS = new LinkedHashMap<String, String>();
+	// Where the results of the kernels are folded, so that the JIT cannot drop them
+	private static volatile double sink;
+
+	static {
+		PARAMETERS.put("kernels", "bestNeighbour,randomNeighbour,copy,nodeCopy");
+		PARAMETERS.put("topologies", "england,france,the_netherlands,switzerland");
+		PARAMETERS.put("tasks", "20,100,500,2000");
+		PARAMETERS.put("vehicles", "2,10,50");
+		PARAMETERS.put("warmup", "1000");
+		PARAMETERS.put("measure", "2000");
+	}
+
+
+
+	/**
+	 * An operation under measurement, bound to its instance.
+	 */
+	private interface Kernel {
+		double run();
+	}
+
+
+	public static void main(String[] args) throws ParserException {
+		Map<String, String> parameters = new LinkedHashMap<String, String>(PARAMETERS);
+		for(String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if(keyValue.length != 2 || !parameters.containsKey(keyValue[0])) {
+				throw new IllegalArgumentException("Unknown parameter " + arg + ", expected one of " +
+						parameters.keySet());
+			}
+			parameters.put(keyValue[0], keyValue[1]);
+		}
+		long warmup = Long.parseLong(parameters.get("warmup"));
+		long measure = Long.parseLong(parameters.get("measure"));
+
+		System.out.println(String.format(Locale.ROOT, "%-15s %-16s %6s %4s %12s %10s %10s %10s %10s %10s %12s",
+				"kernel", "topology", "tasks", "veh", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us",
+				"B/op"));
+		for(String topologyName : parameters.get("topologies").split(",")) {
+			Topology topology = Parsers.parseTopology("config/topology/" + topologyName + ".xml");
+			Atlante atlante = new Atlante(topology, 0);
+			for(String nTasks : parameters.get("tasks").split(",")) {
+				for(String nVehicles : parameters.get("vehicles").split(",")) {
+					List<Vehicle> vehicles = makeVehicles(topology, Integer.parseInt(nVehicles));
+					TaskSet tasks = makeTasks(topology, Integer.parseInt(nTasks));
+					Solution solution = new Solution(vehicles, tasks, atlante);
+
+					for(String kernelName : parameters.get("kernels").split(",")) {
+						String result = measure(makeKernel(kernelName, solution, tasks, vehicles.size()), warmup, measure);
+						System.out.println(String.format(Locale.ROOT, "%-15s %-16s %6s %4s %s", kernelName,
+								topologyName, nTasks, nVehicles, result));
+					}
+				}
+			}
+		}
+
+		return;
+	}
+
+
+	/**
+	 * @param solution: the solution the kernel works on. No kernel modifies it
+	 * @param nVehicles: nodeCopy copies a route as long as the average route of nVehicles vehicles
+	 */
+	private static Kernel makeKernel(String name, final Solution solution, TaskSet tasks, int nVehicles) {
+		if(name.equals("bestNeighbour")) {
+			return new Kernel() {
+				@Override
+				public double run() {
+					return solution.getBestNeighbour().getCost();
+				}
+			};
+		}
+		if(name.equals("randomNeighbour")) {
+			return new Kernel() {
+				@Override
+				public double run() {
+					return solution.getRandomNeighbour().getCost();
+				}
+			};
+		}
+		if(name.equals("copy")) {
+			return new Kernel() {
+				@Override
+				public double run() {
+					return new Solution(solution).getCost();
+				}
+			};
+		}
+		if(name.equals("nodeCopy")) {
+			final Node<Azione> head = makeRoute(tasks, (tasks.size() + nVehicles - 1) / nVehicles);
+			return new Kernel() {
+				@Override
+				public double run() {
+					return head.copy().getNext() == null ? 0 : 1;
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown kernel " + name);
+	}
+
+
+	/**
+	 * @return the head of a route that picks up and then delivers each of the first n tasks
+	 */
+	private static Node<Azione> makeRoute(TaskSet tasks, int n) {
+		Node<Azione> head = null;
+		Node<Azione> tail = null;
+
+		for(Task task : tasks) {
+			if(n-- == 0) {
+				break;
+			}
+			Node<Azione> pickupNode = new Node<Azione>(new Azione(task, Azione.Type.PICKUP));
+			Node<Azione> deliveryNode = new Node<Azione>(new Azione(task, Azione.Type.DELIVERY));
+			pickupNode.insertAfter(tail);
+			deliveryNode.insertAfter(pickupNode);
+			if(head == null) {
+				head = pickupNode;
+			}
+			tail = deliveryNode;
+		}
+
+		return head;
+	}
+
+
+	/**
+	 * Runs kernel for warmup milliseconds, then measures it for measure milliseconds.
+	 * @return the formatted throughput, latency percentiles, and allocated bytes per operation
+	 */
+	private static String measure(Kernel kernel, long warmup, long measure) {
+		double result = 0;
+		long endTime = System.nanoTime() + warmup * 1000000L;
+		while(System.nanoTime() < endTime) {
+			result += kernel.run();
+		}
+
+		long[] latencies = new long[MAXSAMPLES];
+		long nOps = 0;
+		long startBytes = Contatori.threadAllocatedBytes();
+		long startTime = System.nanoTime();
+		endTime = startTime + measure * 1000000L;
+		long now = startTime;
+		while(now < endTime) {
+			result += kernel.run();
+			long then = now;
+			now = System.nanoTime();
+			latencies[(int) (nOps % MAXSAMPLES)] = now - then;
+			nOps++;
+		}
+		long allocatedBytes = Contatori.threadAllocatedBytes() - startBytes;
+		sink += result;
+
+		int nSamples = (int) Math.min(nOps, MAXSAMPLES);
+		Arrays.sort(latencies, 0, nSamples);
+		StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%12.1f", nOps * 1e9 / (now - startTime)));
+		for(double percentile : PERCENTILES) {
+			line.append(String.format(Locale.ROOT, " %10.2f", latencies[(int) (percentile * (nSamples - 1))] / 1e3));
+		}
+		line.append(String.format(Locale.ROOT, " %10.2f", latencies[nSamples - 1] / 1e3));
+		line.append(String.format(Locale.ROOT, " %12.1f", (double) allocatedBytes / nOps));
+		return line.toString();
+	}
+
+
+	/**
+	 * @return n vehicles with the same capacity and cost per km, based in random cities
+	 */
+	private static List<Vehicle> makeVehicles(Topology topology, int n) {
+		Random coin = new Random(SEED);
+		List<City> cities = topology.cities();
+		List<Vehicle> vehicles = new ArrayList<Vehicle>(n);
+
+		for(int id = 0; id < n; id++) {
+			vehicles.add(new Furgone(id, cities.get(coin.nextInt(cities.size()))));
+		}
+
+		return vehicles;
+	}
+
+
+	/**
+	 * @return n tasks between random distinct cities, with random weights up to MAXWEIGHT
+	 */
+	private static TaskSet makeTasks(Topology topology, int n) {
+		Random coin = new Random(SEED + 1);
+		List<City> cities = topology.cities();
+		Task[] tasks = new Task[n];
+
+		for(int id = 0; id < n; id++) {
+			City pickupCity = cities.get(coin.nextInt(cities.size()));
+			City deliveryCity;
+			do {
+				deliveryCity = cities.get(coin.nextInt(cities.size()));
+			} while(deliveryCity == pickupCity);
+			tasks[id] = new Task(id, pickupCity, deliveryCity, 0, 1 + coin.nextInt(MAXWEIGHT));
+		}
+
+		return TaskSet.create(tasks);
+	}
+
+
+	/**
+	 * A synthetic vehicle, standing still in its home city.
+	 */
+	private static class Furgone implements Vehicle {
+		private final int id;
+		private final City homeCity;
+
+
+		Furgone(int id, City homeCity) {
+			this.id = id;
+			this.homeCity = homeCity;
+		}
+
+
+		@Override
+		public int id() {
+			return id;
+		}
+
+		@Override
+		public String name() {
+			return "Furgone " + id;
+		}
+
+		@Override
+		public int capacity() {
+			return CAPACITY;
+		}
+
+		@Override
+		public City homeCity() {
+			return homeCity;
+		}
+
+		@Override
+		public double speed() {
+			return 100;
+		}
+
+		@Override
+		public int costPerKm() {
+			return COSTPERKM;
+		}
+
+		@Override
+		public City getCurrentCity() {
+			return homeCity;
+		}
+
+		@Override
+		public TaskSet getCurrentTasks() {
+			return null;
+		}
+
+		@Override
+		public long getReward() {
+			return 0;
+		}
+
+		@Override
+		public long getDistanceUnits() {
+			return 0;
+		}
+
+		@Override
+		public double getDistance() {
+			return 0;
+		}
+
+		@Override
+		public Color color() {
+			return Color.BLUE;
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package pakko;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import logist.task.Task;
+import planning.Solution;
+
+/**
+ * A cache of the pending solutions and synergies computed by askPrice(), keyed by the signature of the task:
+ * its pickup city, delivery city and weight. Tasks with the same signature cost the same to add to the same
+ * committed tasks, so the entries are valid until a task is won. Then the version of the committed tasks is
+ * bumped, and the entries of the previous versions are dropped.
+ * The background refinement keeps lowering the cost of the committed solution in the meantime, without
+ * dropping the entries: the marginal cost of an entry is taken against the refined cost, so it is what winning
+ * the task with the cached pending solution costs, an upper bound on what a new plan would find.
+ */
+class Listino {
+	// The entries, keyed by signature, all computed on the current version
+	private final Map<Long, Voce> entries;
+	// The version of the committed tasks, increased every time a task is won
+	private long version;
+
+
+
+	/**
+	 * The synergy of a task, and the solution that carries it as well as the committed tasks.
+	 */
+	static class Voce {
+		private final Task task;
+		private final double synergy;
+		private final Solution pendingSolution;
+
+
+		private Voce(Task task, double synergy, Solution pendingSolution) {
+			this.task = task;
+			this.synergy = synergy;
+			this.pendingSolution = pendingSolution;
+		}
+
+
+		/**
+		 * @param committedCost: the cost of the committed solution now, which may be lower than when this
+		 * entry was computed
+		 * @return how much winning the task with the pending solution of this entry costs
+		 */
+		double getMarginalCost(double committedCost) {
+			return pendingSolution.getCost() - committedCost;
+		}
+
+
+		/**
+		 * @return how much cheaper the task makes the likely future tasks, as valued by Indovino
+		 */
+		double getSynergy() {
+			return synergy;
+		}
+
+
+		/**
+		 * @return the pending solution of this entry, with newTask in place of the task it was computed for
+		 */
+		Solution getPendingSolution(Task newTask) {
+			return pendingSolution.replaceTask(task, newTask);
+		}
+	}
+
+
+	Listino() {
+		this.entries = new HashMap<Long, Voce>();
+		this.version = 0;
+	}
+
+
+	/**
+	 * @return the entry of a task with the same signature as task, or null if none was computed on the
+	 * current version of the committed tasks
+	 */
+	Voce get(Task task) {
+		return entries.get(signature(task));
+	}
+
+
+	/**
+	 * @param pendingSolution: the committed solution with task added. It must not be modified afterwards
+	 */
+	void put(Task task, double synergy, Solution pendingSolution) {
+		entries.put(signature(task), new Voce(task, synergy, pendingSolution));
+	}
+
+
+	/**
+	 * Signals that the committed tasks changed: all the entries are dropped.
+	 */
+	void newVersion() {
+		version++;
+		entries.clear();
+	}
+
+
+	long getVersion() {
+		return version;
+	}
+
+
+	/**
+	 * City ids take 16 bits each, the weight the remaining 32, so that different signatures never collide.
+	 */
+	private static long signature(Task task) {
+		return ((long) task.pickupCity.id << 48) | ((long) task.deliveryCity.id << 32) | (task.weight & 0xffffffffL);
+	}
+
+}
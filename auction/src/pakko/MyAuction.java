@@ -21,6 +21,8 @@ import logist.task.TaskSet;
 import logist.topology.Topology;
 import logist.topology.Topology.City;
 
+import planning.Atlante;
+import planning.Indovino;
 import planning.Planner;
 import planning.Solution;
 
@@ -34,12 +36,15 @@ public class MyAuction implements AuctionBehavior {
 	private Topology topology;
 	private TaskDistribution distribution;
 	private Agent agent;
+	private Atlante atlante;
 	private List<Vehicle> vehicles;
 
 	private long timeoutBid;
 	private long timeoutMargin;
 	private double epsilon;
+	private double futureShare;
 	private Planner planner;
+	private Indovino indovino;
 
 	private Set<Task> wonAndPendingTasks;
 	private Solution currentSolution;
@@ -47,6 +52,8 @@ public class MyAuction implements AuctionBehavior {
 	private Solution pendingSolution;
 	
 	private Prezzer prezzer;
+	private Sottofondo sottofondo;
+	private Listino listino;
 
 
 	@Override
@@ -67,24 +74,60 @@ public class MyAuction implements AuctionBehavior {
 		this.timeoutMargin = agent.readProperty("timeout-margin", Long.class, 100L);
 		// Reads the user-chosen epsilon parameter from the configuration file
 		this.epsilon = agent.readProperty("epsilon", Double.class, 0.2);
+		// Reads the user-chosen number of nearest cities tried by insertions from the configuration file
+		int granularity = agent.readProperty("granularity", Integer.class, 0);
+		// Reads the user-chosen time slice of the background refinement from the configuration file (0 to disable it)
+		long backgroundSlice = agent.readProperty("background-slice", Long.class, 100L);
+		// Reads the user-chosen way of adding the auctioned task to the solution from the configuration file
+		String insertionName = agent.readProperty("insertion", String.class, "INCREMENTAL");
+		// The thread budget of askPrice(). The chains of the planner, then the samples of the future tasks, run
+		// one after the other while the background thread is stopped: each of them may take all the processors,
+		// but the chains for the solutions with and without the auctioned task share them
+		int nProcessors = Runtime.getRuntime().availableProcessors();
+		// Reads the user-chosen number of parallel chains for the solutions with and without the auctioned task
+		// from the configuration file. Only RANDOM insertion runs chains: with INCREMENTAL, both are ignored
+		int nBaselineChains = agent.readProperty("baseline-chains", Integer.class, 0);
+		int nChains = agent.readProperty("n-chains", Integer.class, Math.max(1, nProcessors - nBaselineChains));
+		// Reads the user-chosen valuation of the future tasks from the configuration file: how many sequences
+		// are sampled, how many tasks each, how much each task weighs relative to the one before, on how many
+		// threads, and which share of the bid time it takes (0 samples to disable it)
+		int nFutureSamples = agent.readProperty("future-samples", Integer.class, 16);
+		int futureHorizon = agent.readProperty("future-horizon", Integer.class, 5);
+		double futureDiscount = agent.readProperty("future-discount", Double.class, 0.5);
+		int nFutureThreads = agent.readProperty("future-threads", Integer.class, nProcessors);
+		this.futureShare = agent.readProperty("future-share", Double.class, 0.3);
 
 		this.topology = topology;
 		this.distribution = distribution;
 		this.agent = agent;
+		this.atlante = new Atlante(topology, granularity);
 		this.vehicles = agent.vehicles();
-		this.planner = new Planner(this.vehicles);
+		this.planner = new Planner(this.vehicles, Planner.Insertion.valueOf(insertionName.toUpperCase()), nChains,
+				nBaselineChains);
+		this.indovino = new Indovino(topology, distribution, this.vehicles, nFutureSamples, futureHorizon,
+				futureDiscount, nFutureThreads);
 
 		this.wonAndPendingTasks = new HashSet<Task>();
-		this.currentSolution = new Solution(vehicles);	// Empty solution
+		this.currentSolution = new Solution(vehicles, atlante);	// Empty solution
 		this.pendingTask = null;
 		this.pendingSolution = null;
 		
 		this.prezzer = new Prezzer(vehicles, agent);
+		this.sottofondo = new Sottofondo(vehicles, epsilon, backgroundSlice);
+		this.sottofondo.start(currentSolution);
+		this.listino = new Listino();
 	}
 
 
 	@Override
 	public void auctionResult(Task previous, int winner, Long[] bids) {
+		// Take both outcomes back from the background thread, refined while the others were bidding
+		Solution[] outcomes = sottofondo.stop();
+		currentSolution = outcomes[0];
+		if(outcomes.length > 1) {
+			pendingSolution = outcomes[1];
+		}
+
 		// Is previous == pendingTask?
 		if(previous.id != pendingTask.id) {
 			throw new RuntimeException("Provided previous is not the same as pendingTask. Previous: " + previous + ", PendingTask: "+ pendingTask);
@@ -101,6 +144,8 @@ public class MyAuction implements AuctionBehavior {
 		if (winner == agent.id()) {
 			System.out.println("auctionResult WON task: " + previous);	
 			currentSolution = pendingSolution;
+			// The committed tasks changed: the cached pending solutions are stale
+			listino.newVersion();
 		} else {
 			System.out.println("auctionResult LOST task: " + previous);
 			wonAndPendingTasks.remove(pendingTask);
@@ -110,6 +155,9 @@ public class MyAuction implements AuctionBehavior {
 		
 		// Inform the prezzer
 		prezzer.auctionResult(previous, winner, bids);
+
+		// Refine the outcome that happened until the next task is auctioned
+		sottofondo.start(currentSolution);
 		
 		return;
 	}
@@ -117,7 +165,11 @@ public class MyAuction implements AuctionBehavior {
 
 	@Override
 	public Long askPrice(Task task) {
+		long startTime = System.currentTimeMillis();
 		System.out.println("askPrice task: " +  task);
+
+		// Take the committed solution back from the background thread, refined since the last round
+		currentSolution = sottofondo.stop()[0];
 		
 		// Is pendingTask == null?
 		if(pendingTask != null) {
@@ -136,20 +188,50 @@ public class MyAuction implements AuctionBehavior {
 
 		// Can we carry this task?
 		if (!canCarry(task)) {
+			sottofondo.start(currentSolution);
 			return null;
 		}
 
 		// Compute plan for accepting task
 		pendingTask = task;
 		wonAndPendingTasks.add(task);
-		pendingSolution = planner.plan(currentSolution, task, epsilon, timeoutBid-timeoutMargin);
+		double marginalCost;
+		double synergy;
+		Listino.Voce voce = listino.get(task);
+		if(voce != null) {
+			// A task with the same signature was auctioned since the last win: reuse its pending solution and
+			// valuation. The background refinement may have lowered currentCost since, which raises the
+			// marginal cost of that pending solution
+			System.out.println("askPrice reusing the marginal cost of version " + listino.getVersion());
+			pendingSolution = voce.getPendingSolution(task);
+			marginalCost = voce.getMarginalCost(currentCost);
+			synergy = voce.getSynergy();
+		} else {
+			// Leave futureShare of the remaining time to the valuation of the future tasks
+			long elapsedTime = System.currentTimeMillis() - startTime;
+			long planTimeout = Math.round((1 - futureShare) * (timeoutBid-timeoutMargin-elapsedTime));
+			pendingSolution = planner.plan(currentSolution, task, epsilon, planTimeout);
+			// The baseline chains, if any, may have improved the solution without task as well
+			currentSolution = planner.getBaseline();
+			currentCost = currentSolution.getCost();
 
-		// Compute marginal cost
-		double marginalCost = pendingSolution.getCost() - currentCost;
-		
-		Long bid = prezzer.askPrice(marginalCost);
+			// Compute marginal cost
+			marginalCost = pendingSolution.getCost() - currentCost;
+
+			// Winning task makes the likely future tasks cheaper: that synergy is worth bidding lower
+			elapsedTime = System.currentTimeMillis() - startTime;
+			synergy = indovino.value(currentSolution, pendingSolution, timeoutBid-timeoutMargin-elapsedTime);
+			listino.put(task, synergy, pendingSolution);
+		}
+
+		System.out.println("askPrice marginal cost: " + marginalCost + ", synergy: " + synergy);
+
+		Long bid = prezzer.askPrice(marginalCost - synergy);
 		
 		System.out.println("askPrice bid: " +  Math.round(bid));	
+
+		// Refine both possible outcomes of this round while the others bid
+		sottofondo.start(currentSolution, pendingSolution);
 		
 		return (long) Math.round(bid);
 	}
@@ -165,8 +247,9 @@ public class MyAuction implements AuctionBehavior {
 		if(!sameTasks(tasks)) {
 			throw new RuntimeException("Provided tasks is not the same as wonAndPendingTasks");
 		}
+		currentSolution = sottofondo.stop()[0];
 		if (currentSolution == null) {
-			currentSolution = new Solution(vehicles, tasks);
+			currentSolution = new Solution(vehicles, tasks, atlante);
 		}
 		currentSolution.updateTasks(tasks);
 		
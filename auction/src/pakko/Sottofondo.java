@@ -0,0 +1,120 @@
+package pakko;
+
+import java.util.List;
+
+import logist.simulation.Vehicle;
+import planning.Planner;
+import planning.Solution;
+
+/**
+ * Refines, in a background thread, the solutions the agent may end up with while it waits for the auction:
+ * the committed one and, during a round, the one with the pending task won. They take turns at the planner,
+ * one slice of time each, so that all of them improve however long the wait is.
+ * The solutions belong to the background thread between start() and stop(): no one else may touch them.
+ */
+class Sottofondo {
+	// The planner of the background thread, since a Planner is not thread-safe
+	private final Planner planner;
+	private final double epsilon;
+	// How long each solution is refined before the next one takes its turn. If 0, nothing is refined
+	private final long slice;
+	// The solutions being refined, replaced by the background thread as they improve
+	private Solution[] outcomes;
+	private Thread thread;
+
+
+
+	/**
+	 * @param slice: how many milliseconds each solution is refined before the next one takes its turn. If 0,
+	 * the background thread is never started
+	 */
+	Sottofondo(List<Vehicle> vehicles, double epsilon, long slice) {
+		this.planner = new Planner(vehicles);
+		this.epsilon = epsilon;
+		this.slice = slice;
+		this.outcomes = new Solution[0];
+		this.thread = null;
+	}
+
+
+	/**
+	 * Starts refining outcomes in the background.
+	 * @param outcomes: the solutions to refine. Null ones, and the ones without tasks, are left as they are
+	 */
+	void start(Solution... outcomes) {
+		if(thread != null) {
+			throw new IllegalStateException("The background thread is already running");
+		}
+
+		final Solution[] refined = outcomes.clone();
+		this.outcomes = refined;
+		if(slice <= 0 || !anyRefinable(refined)) {
+			return;
+		}
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(!Thread.currentThread().isInterrupted()) {
+					for(int i = 0; i < refined.length; i++) {
+						if(isRefinable(refined[i])) {
+							refined[i] = planner.improve(refined[i], epsilon, slice);
+						}
+					}
+				}
+			}
+		}, "sottofondo");
+		thread.setDaemon(true);
+		thread.start();
+
+		return;
+	}
+
+
+	/**
+	 * Stops refining, and waits for the background thread to hand the solutions back, which takes at most
+	 * one iteration of the SLS.
+	 * @return the refined solutions, in the order they were passed to start()
+	 */
+	Solution[] stop() {
+		if(thread == null) {
+			return outcomes;
+		}
+
+		// Do not give up waiting: until the thread is over, it may still replace an outcome
+		boolean interrupted = false;
+		thread.interrupt();
+		while(thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException exc) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+
+		return outcomes;
+	}
+
+
+	private static boolean anyRefinable(Solution[] solutions) {
+		for(Solution solution : solutions) {
+			if(isRefinable(solution)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * A solution with tasks always costs something, since no task is delivered where it is picked up.
+	 */
+	private static boolean isRefinable(Solution solution) {
+		return solution != null && solution.getCost() > 0;
+	}
+
+}
@@ -0,0 +1,226 @@
+package planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+
+/**
+ * Values how much cheaper winning a task makes the tasks likely to be auctioned after it.
+ * Each sample draws a sequence of future tasks from the TaskDistribution, and inserts them one at a time, at
+ * their cheapest position, both in the solution without the task and in the one with it: the synergy of the
+ * sample is the sum of the differences between their marginal costs, discounted by how far in the future
+ * each task is. The samples run in parallel on a work-stealing pool, until a deadline.
+ */
+public class Indovino {
+	private int nSamples;			// The number of sequences drawn by value()
+	private int horizon;			// The number of tasks in each sequence
+	private double discount;		// The weight of each task of a sequence, relative to the one before
+	// The pairs of cities a task can be auctioned between, with their weights and the cumulative probability of
+	// drawing each of them, or one before it
+	private City[] pickupCities;
+	private City[] deliveryCities;
+	private int[] weights;
+	private double[] cumulatives;
+	private ForkJoinPool pool;		// Runs the samples, if more than one thread
+	private Random coin;
+
+
+
+	/**
+	 * @param nSamples: the number of sequences of future tasks drawn by value()
+	 * @param horizon: the number of tasks in each sequence
+	 * @param discount: the weight of each task of a sequence, relative to the one before. It accounts both for
+	 * the tasks that will be won by others, and for the ones whose auction is so far that the plan will change
+	 * @param nThreads: the size of the pool running the samples. If 1, they run in the calling thread
+	 */
+	public Indovino(Topology topology, TaskDistribution distribution, List<Vehicle> vehicles, int nSamples,
+			int horizon, double discount, int nThreads) {
+		super();
+		this.nSamples = nSamples;
+		this.horizon = horizon;
+		this.discount = discount;
+		this.initPairs(topology, distribution, vehicles);
+		// The worker threads of a ForkJoinPool are daemons, so they do not outlive the agent
+		this.pool = (nThreads > 1) ? new ForkJoinPool(nThreads) : null;
+
+		this.coin = new Random(42);
+	}
+
+
+	/**
+	 * Computes the distribution of the pairs of cities the future tasks are drawn from. The pickup city of a
+	 * task is uniform, and its delivery city follows the distribution: so each pair weighs its probability.
+	 * The pairs whose tasks no vehicle can carry are left out.
+	 */
+	private void initPairs(Topology topology, TaskDistribution distribution, List<Vehicle> vehicles) {
+		int maxCapacity = 0;
+		for(Vehicle vehicle : vehicles) {
+			maxCapacity = Math.max(maxCapacity, vehicle.capacity());
+		}
+
+		List<City> pickups = new ArrayList<City>();
+		List<City> deliveries = new ArrayList<City>();
+		List<Double> probabilities = new ArrayList<Double>();
+		for(City from : topology.cities()) {
+			for(City to : topology.cities()) {
+				double probability = distribution.probability(from, to);
+				if(from != to && probability > 0 && distribution.weight(from, to) <= maxCapacity) {
+					pickups.add(from);
+					deliveries.add(to);
+					probabilities.add(probability);
+				}
+			}
+		}
+
+		int nPairs = pickups.size();
+		this.pickupCities = pickups.toArray(new City[nPairs]);
+		this.deliveryCities = deliveries.toArray(new City[nPairs]);
+		this.weights = new int[nPairs];
+		this.cumulatives = new double[nPairs];
+		double cumulative = 0;
+		for(int i = 0; i < nPairs; i++) {
+			weights[i] = distribution.weight(pickupCities[i], deliveryCities[i]);
+			cumulative += probabilities.get(i);
+			cumulatives[i] = cumulative;
+		}
+		for(int i = 0; i < nPairs; i++) {
+			cumulatives[i] /= cumulative;
+		}
+
+		return;
+	}
+
+
+	/**
+	 * Draws nSamples sequences of future tasks, and values each of them on both solutions, in parallel.
+	 * The samples not over by the timeout are left out. Each sample works on its own copies of the two
+	 * solutions, made before any sample starts, so that the result does not depend on the timing of the
+	 * threads, but only on the timeout.
+	 * @param pastSolution: the solution without the task. Only its PRNG is drawn from, and no one else may
+	 * modify it during the call
+	 * @param newSolution: the same solution with the task. Only its PRNG is drawn from, and no one else may
+	 * modify it during the call
+	 * @return the average synergy of the samples over by the timeout, or 0 if none is
+	 */
+	public double value(Solution pastSolution, Solution newSolution, long timeout) {
+		long startTime = System.currentTimeMillis();
+		if(nSamples <= 0 || horizon <= 0 || cumulatives.length == 0) {
+			return 0;
+		}
+
+		// Update the costs once, so that the copies do not compute them again
+		pastSolution.getCost();
+		newSolution.getCost();
+
+		// Each sample draws its sequence with its own PRNG, seeded by the one of this Indovino. The copies
+		// seed their PRNGs from the originals, so they are made here, in order, and not by the samples
+		List<Callable<Double>> samples = new ArrayList<Callable<Double>>(nSamples);
+		for(int i = 0; i < nSamples; i++) {
+			samples.add(newSample(new Solution(pastSolution), new Solution(newSolution), new Random(coin.nextLong()),
+					startTime, timeout));
+		}
+
+		double totalSynergy = 0;
+		int nValued = 0;
+		for(Double synergy : runSamples(samples)) {
+			if(synergy != null) {
+				totalSynergy += synergy;
+				nValued++;
+			}
+		}
+
+		return (nValued > 0) ? totalSynergy / nValued : 0;
+	}
+
+
+	/**
+	 * @param pastSolution: the copy of the solution without the task owned by this sample
+	 * @param newSolution: the copy of the solution with the task owned by this sample
+	 * @return a sample, which values a sequence of horizon future tasks on pastSolution and newSolution, or
+	 * returns null if the timeout expires first
+	 */
+	private Callable<Double> newSample(final Solution pastSolution, final Solution newSolution,
+			final Random sampleCoin, final long startTime, final long timeout) {
+		return new Callable<Double>() {
+			@Override
+			public Double call() {
+				long startBytes = Contatori.threadAllocatedBytes();
+				Solution pastFuture = pastSolution;
+				Solution newFuture = newSolution;
+				double synergy = 0;
+				double weight = 1;
+
+				// Negative ids never clash with the ones of the auctioned tasks
+				for(int k = 1; k <= horizon; k++) {
+					if(System.currentTimeMillis() - startTime >= timeout) {
+						Contatori.SLS.addAllocation(Contatori.threadAllocatedBytes() - startBytes);
+						return null;
+					}
+					Task task = drawTask(-k, sampleCoin);
+					Solution pastNext = pastFuture.getBestInsertion(task);
+					Solution newNext = newFuture.getBestInsertion(task);
+					double pastMarginalCost = pastNext.getCost() - pastFuture.getCost();
+					double newMarginalCost = newNext.getCost() - newFuture.getCost();
+					synergy += weight * (pastMarginalCost - newMarginalCost);
+					weight *= discount;
+					pastFuture = pastNext;
+					newFuture = newNext;
+				}
+
+				Contatori.SLS.addAllocation(Contatori.threadAllocatedBytes() - startBytes);
+				return synergy;
+			}
+		};
+	}
+
+
+	/**
+	 * @return a task with the given id, between a pair of cities drawn from the distribution
+	 */
+	private Task drawTask(int id, Random sampleCoin) {
+		int pair = Arrays.binarySearch(cumulatives, sampleCoin.nextDouble());
+		// Not found: binarySearch returns -(the first cumulative greater than the drawn one) - 1
+		if(pair < 0) {
+			pair = Math.min(-pair - 1, cumulatives.length - 1);
+		}
+
+		return new Task(id, pickupCities[pair], deliveryCities[pair], 0, weights[pair]);
+	}
+
+
+	/**
+	 * Runs samples on the pool, or in the calling thread if there is no pool.
+	 * @return the results of samples, in the same order
+	 */
+	private List<Double> runSamples(List<Callable<Double>> samples) {
+		List<Double> results = new ArrayList<Double>(samples.size());
+
+		try {
+			if(pool == null) {
+				for(Callable<Double> sample : samples) {
+					results.add(sample.call());
+				}
+			} else {
+				for(Future<Double> result : pool.invokeAll(samples)) {
+					results.add(result.get());
+				}
+			}
+		} catch (Exception exc) {
+			throw new RuntimeException("A sample of the future tasks failed", exc);
+		}
+
+		return results;
+	}
+
+}
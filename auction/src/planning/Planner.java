@@ -1,7 +1,11 @@
 package planning;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,23 +15,60 @@ import logist.task.Task;
 
 /**
  * A centralised planner using an epsilon-greedy (with decreasing epsilon) stochastic local search.
+ * plan() can run several chains in parallel, each with its own seed, for the solution with the new task,
+ * and some more for the solution without it, so that both ends of the marginal cost are optimised by the
+ * same deadline.
  */
 public class Planner {
+	/**
+	 * How plan() adds the new task to the past solution: at the head of a random vehicle, followed by
+	 * NUMRANDOMISE random moves and NUMBEST greedy ones, then the chains; or at its cheapest position,
+	 * followed by a local search of the route it lands in, which leaves the rest of the optimised past
+	 * solution as it is. INCREMENTAL returns as soon as that local search converges, without any chain.
+	 */
+	public enum Insertion { RANDOM, INCREMENTAL }
+
 	private static final int ITERSTOLOG = 100000;
 	private static final int NUMRANDOMISE = 200;
 	private static final int NUMBEST = 200;
 	private static final int ITERSRESET = 1000;
-	private static final int RESETSTOLOG = ITERSTOLOG / ITERSRESET;
 	private static final Level LOGLEVEL = Level.ALL;
 	private List<Vehicle> vehicles;
+	private Insertion insertion;
+	private int nChains;			// The number of chains run by plan() for the solution with the new task
+	private int nBaselineChains;	// The number of chains run by plan() for the solution without it
+	private ForkJoinPool pool;		// Runs the chains, if more than one
+	private Solution baseline;		// The best solution without the new task found by the last plan()
 	private Random coin;
 	private Logger logger;
 
 
 
 	public Planner(List<Vehicle> vehicles) {
+		this(vehicles, Insertion.RANDOM);
+	}
+
+
+	public Planner(List<Vehicle> vehicles, Insertion insertion) {
+		this(vehicles, insertion, 1, 0);
+	}
+
+
+	/**
+	 * With INCREMENTAL insertion, plan() runs no chain: neither number matters, and no pool is created.
+	 * @param nChains: the number of chains run by plan() for the solution with the new task. At least one is run
+	 * @param nBaselineChains: the number of chains run by plan(), at the same time, to re-optimise the
+	 * solution without the new task. If 0, or with INCREMENTAL insertion, the past solution is the baseline
+	 */
+	public Planner(List<Vehicle> vehicles, Insertion insertion, int nChains, int nBaselineChains) {
 		super();
 		this.vehicles = vehicles;
+		this.insertion = insertion;
+		this.nChains = Math.max(1, nChains);
+		this.nBaselineChains = Math.max(0, nBaselineChains);
+		// The worker threads of a ForkJoinPool are daemons, so they do not outlive the agent
+		boolean parallel = insertion == Insertion.RANDOM && this.nChains + this.nBaselineChains > 1;
+		this.pool = parallel ? new ForkJoinPool(this.nChains + this.nBaselineChains) : null;
 
 		this.coin = new Random(42);
 
@@ -37,32 +78,176 @@ public class Planner {
 
 
 	/**
-	 * Implements an epsilon-greedy (with decreasing epsilon) SLS.
-	 * @return the best joint plan found.
+	 * Adds newTask to pastSolution, then runs nChains epsilon-greedy (with decreasing epsilon) SLS chains
+	 * from there, and nBaselineChains from pastSolution, all until the timeout.
+	 * With a single chain, it runs in the calling thread. With INCREMENTAL insertion, no chain is run: it
+	 * returns once the route of newTask cannot be improved any more, or at the timeout.
+	 * @param pastSolution: the solution without newTask. It is not modified
+	 * @return the best solution with newTask found by any chain. The best one without it is then returned by
+	 * getBaseline()
 	 */
 	public Solution plan(Solution pastSolution, Task newTask, double epsilon, long timeout){
 		long startTime = System.currentTimeMillis();
-		long elapsedTime = 0L;
-		Solution currentSolution;
-		Solution bestSolution;
-		
-		// Initialise currentSolution
-		currentSolution = new Solution(pastSolution);
-		currentSolution.addTask(newTask);
-		
-		// Randomise currentSolution
-		for(int i = 0; i < NUMRANDOMISE; i++) {
-			currentSolution = currentSolution.getRandomNeighbour();
+
+		if(insertion == Insertion.INCREMENTAL) {
+			// Insert newTask at its cheapest position, and polish the route it landed in. The rest of the past
+			// solution is already optimised: chains would spend the remaining time walking around it
+			baseline = pastSolution;
+			return focus(pastSolution.getBestInsertion(newTask), newTask, startTime, timeout);
+		}
+
+		// Initialise initialSolution: each chain randomises its own copy
+		Solution initialSolution = new Solution(pastSolution);
+		initialSolution.addTask(newTask);
+
+		// Each chain starts from its own copy, whose PRNG is seeded by the one of the original
+		List<Callable<Solution>> chains = new ArrayList<Callable<Solution>>();
+		for(int i = 0; i < nChains; i++) {
+			chains.add(newChain(new Solution(initialSolution), true, epsilon, startTime, timeout));
+		}
+		// Without tasks, there is nothing to re-optimise
+		for(int i = 0; i < nBaselineChains && pastSolution.getTotalTasks() > 0; i++) {
+			chains.add(newChain(new Solution(pastSolution), false, epsilon, startTime, timeout));
+		}
+		List<Solution> results = runChains(chains);
+
+		Solution bestSolution = results.get(0);
+		for(Solution result : results.subList(1, nChains)) {
+			if(result.getCost() < bestSolution.getCost()) {
+				bestSolution = result;
+			}
+		}
+		baseline = pastSolution;
+		for(Solution result : results.subList(nChains, results.size())) {
+			if(result.getCost() < baseline.getCost()) {
+				baseline = result;
+			}
+		}
+
+		logger.info("Counters: " + Contatori.SLS);
+		return bestSolution;
+	}
+
+
+	/**
+	 * @return the best solution without the task of the last call to plan(): its past solution, unless
+	 * a baseline chain improved it
+	 */
+	public Solution getBaseline() {
+		return baseline;
+	}
+
+
+	/**
+	 * Refines solution with the same SLS as plan(), without adding or randomising anything.
+	 * Stops early if the calling thread is interrupted, and leaves it interrupted.
+	 * @param solution: the starting point, with at least one task. It is not modified
+	 * @return the best solution found, or solution itself if none is better
+	 */
+	public Solution improve(Solution solution, double epsilon, long timeout) {
+		long startBytes = Contatori.threadAllocatedBytes();
+		Solution bestSolution = search(solution, coin, epsilon, System.currentTimeMillis(), timeout);
+
+		Contatori.SLS.addAllocation(Contatori.threadAllocatedBytes() - startBytes);
+		return bestSolution;
+	}
+
+
+	/**
+	 * @param startSolution: the solution the chain starts from, owned by the chain
+	 * @param randomise: whether the chain first applies NUMRANDOMISE random moves and NUMBEST greedy ones
+	 * @return a chain of the SLS, with its own PRNG, seeded by the one of this planner
+	 */
+	private Callable<Solution> newChain(final Solution startSolution, final boolean randomise,
+			final double epsilon, final long startTime, final long timeout) {
+		final Random chainCoin = new Random(coin.nextLong());
+
+		return new Callable<Solution>() {
+			@Override
+			public Solution call() {
+				long startBytes = Contatori.threadAllocatedBytes();
+				Solution currentSolution = startSolution;
+
+				if(randomise) {
+					// Randomise currentSolution
+					for(int i = 0; i < NUMRANDOMISE; i++) {
+						currentSolution = currentSolution.getRandomNeighbour();
+					}
+					// Improve currentSolution
+					for(int i = 0; i < NUMBEST; i++) {
+						currentSolution = currentSolution.getBestNeighbour();
+					}
+				}
+				Solution bestSolution = search(currentSolution, chainCoin, epsilon, startTime, timeout);
+
+				Contatori.SLS.addAllocation(Contatori.threadAllocatedBytes() - startBytes);
+				return bestSolution;
+			}
+		};
+	}
+
+
+	/**
+	 * Runs chains on the pool, or in the calling thread if there is just one.
+	 * @return the results of chains, in the same order
+	 */
+	private List<Solution> runChains(List<Callable<Solution>> chains) {
+		List<Solution> results = new ArrayList<Solution>(chains.size());
+
+		try {
+			if(chains.size() == 1) {
+				results.add(chains.get(0).call());
+			} else {
+				for(Future<Solution> result : pool.invokeAll(chains)) {
+					results.add(result.get());
+				}
+			}
+		} catch (Exception exc) {
+			throw new RuntimeException("A chain of the SLS failed", exc);
 		}
-		// Improve currentSolution
-		for(int i = 0; i < NUMBEST; i++) {
-			currentSolution = currentSolution.getBestNeighbour();
+
+		return results;
+	}
+
+
+	/**
+	 * Local search around newTask: relocates each task in the route of newTask to its best position, among
+	 * all vehicles, until a whole pass improves nothing or the timeout expires.
+	 * @return the best solution found, solution included
+	 */
+	private Solution focus(Solution solution, Task newTask, long startTime, long timeout) {
+		boolean improved = true;
+
+		while(improved) {
+			improved = false;
+			for(Task task : solution.getRouteTasks(newTask)) {
+				if(System.currentTimeMillis() - startTime >= timeout) {
+					return solution;
+				}
+				Solution neighbour = solution.getBestRelocation(task);
+				if(neighbour.getCost() < solution.getCost()) {
+					solution = neighbour;
+					improved = true;
+				}
+			}
 		}
-		bestSolution = currentSolution;
+
+		return solution;
+	}
+
+
+	/**
+	 * The epsilon-greedy loop, from initialSolution until timeout milliseconds after startTime, or until the
+	 * calling thread is interrupted.
+	 * @return the best solution found, initialSolution included
+	 */
+	private Solution search(Solution initialSolution, Random coin, double epsilon, long startTime, long timeout) {
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		Solution currentSolution = initialSolution;
+		Solution bestSolution = initialSolution;
 
 		int itersSinceBest = 0;
-		int nReset = 0;
-		for(int nIter = 1; elapsedTime < timeout; nIter++) {
+		for(int nIter = 1; elapsedTime < timeout && !Thread.currentThread().isInterrupted(); nIter++) {
 			// Do not log all iterations
 			if(nIter % ITERSTOLOG == 0) {
 				logger.info("Iteration " + nIter + ": elapsed time = " + elapsedTime + 	", current cost = " + 
@@ -71,16 +256,14 @@ public class Planner {
 
 			// If too long since we found the best, reset to best
 			if(itersSinceBest >= ITERSRESET) {
-				nReset ++;
-				if(nReset % RESETSTOLOG == 0) {
-					logger.info("Too long since we found bestSolution: resetting current to best");
-				}
 				currentSolution = bestSolution;
 				itersSinceBest = 0;	
+				Contatori.SLS.countReset();
 			}
 
 			
 			// Toss a coin
+			Solution previousSolution = currentSolution;
 			if(coin.nextDouble() < epsilon) {
 				// With probability epsilon, move to random neighbour
 				if(nIter % ITERSTOLOG == 0) {
@@ -96,6 +279,9 @@ public class Planner {
 				currentSolution = currentSolution.getBestNeighbour();
 			}
 
+			Contatori.SLS.countIteration(currentSolution != previousSolution &&
+					currentSolution.getCost() != previousSolution.getCost());
+
 			// Increase itersSinceBest
 			itersSinceBest++;
 
@@ -1,5 +1,8 @@
 package planning;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -10,6 +13,7 @@ import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import logist.plan.Action.Move;
 import logist.plan.Plan;
 import logist.simulation.Vehicle;
 import logist.task.Task;
@@ -18,19 +22,38 @@ import logist.topology.Topology.City;
 import planning.Azione.Type;
 
 public class Solution {
-	// The maximum number of times we look for a different vehicle to carry a task
-	private static final int MAXDIFFVEHICLES = 20;
 	// The log level
 	private static final Level LOGLEVEL = Level.OFF;
-	// The first action for each agent
-	private Map<Vehicle, Node<Azione>> firstActions;
+	// The first action of each vehicle, indexed by vehicle id
+	private Node<Azione>[] firstActions;
 	// List of vehicles: the order is to be respected when returning the joint plan
 	private List<Vehicle> vehicles;
-	// Map holding, for each vehicle, how many tasks it carries
-	private Map<Vehicle, Integer> nTasks;
+	// The vehicles, sorted by decreasing capacity. Shared among copies
+	private List<Vehicle> byCapacity;
+	// The distances and paths between cities. Shared among copies
+	private Atlante atlante;
+	// The capacity, cost per km and starting city of each vehicle, indexed by vehicle id. Shared among copies
+	private int[] capacities;
+	private int[] costsPerKm;
+	private City[] startCities;
+	// How many tasks each vehicle carries, indexed by vehicle id
+	private int[] nTasks;
 	// Total number of tasks
 	private int totalTasks;
-	// Cost of this solution:
+	// The tasks in this solution, for uniform sampling
+	private List<Task> taskList;
+	// Maps holding, for each task id, the vehicle carrying it and the nodes of its pickup and delivery. A copy
+	// leaves them null until index() builds them, since most copies made by the SLS are never asked for them
+	private Map<Integer, Vehicle> taskVehicles;
+	private Map<Integer, Node<Azione>> pickupNodes;
+	private Map<Integer, Node<Azione>> deliveryNodes;
+	// Cost of the route of each vehicle, indexed by vehicle id
+	private double[] vehicleCosts;
+	// Whether the route of each vehicle changed since its cost was computed, indexed by vehicle id
+	private boolean[] dirtyCosts;
+	// Whether any vehicle is dirty
+	private boolean dirty;
+	// Cost of this solution: the sum of vehicleCosts, when no vehicle is dirty
 	private double cost;
 	// PRNG
 	private Random coin;
@@ -45,18 +68,17 @@ public class Solution {
 	/* CONSTRUCTORS */
 
 
-	public Solution(List<Vehicle> vehicles) {
+	public Solution(List<Vehicle> vehicles, Atlante atlante) {
 		this.vehicles = vehicles;
-		this.firstActions = new HashMap<Vehicle, Node<Azione>>();
-		this.nTasks = new HashMap<Vehicle, Integer>();
+		this.atlante = atlante;
+		this.initVehicles();
+		this.taskList = new ArrayList<Task>();
+		this.taskVehicles = new HashMap<Integer, Vehicle>();
+		this.pickupNodes = new HashMap<Integer, Node<Azione>>();
+		this.deliveryNodes = new HashMap<Integer, Node<Azione>>();
 		this.totalTasks = 0;
 		this.coin = new Random(15);
-
-		// Fill firstActions with null, and nTasks with 0, for each vehicle
-		for(Vehicle vehicle : vehicles) {
-			firstActions.put(vehicle, null);
-			nTasks.put(vehicle, 0);
-		}
+		this.initSampling();
 
 		// Compute the cost of this solution
 		this.initCost();
@@ -64,12 +86,11 @@ public class Solution {
 
 
 	public void addTask(Task task) {
-		Vehicle vez;
-
 		// Find random vehicle that has enough capacity
-		do {
-			vez = getRandomVehicle();
-		} while(vez.capacity() < task.weight);	// Loops forever if no suitable vehicle exists
+		Vehicle vez = getRandomVehicle(task, null);
+		if(vez == null) {
+			throw new RuntimeException("No vehicle can carry task " + task);
+		}
 
 		// Create Azioni and Nodes
 		Azione pickup = new Azione(task, Type.PICKUP);
@@ -78,34 +99,34 @@ public class Solution {
 		Node<Azione> deliveryNode = new Node<Azione>(delivery);
 
 		// Insert pickup and delivery to the head of the list of actions
-		deliveryNode.insertBefore(firstActions.get(vez));
+		deliveryNode.insertBefore(firstActions[vez.id()]);
 		pickupNode.insertBefore(deliveryNode);
-		firstActions.put(vez, pickupNode);
+		firstActions[vez.id()] = pickupNode;
+		indexTask(task, vez, pickupNode, deliveryNode);
 		// Increase nTasks
-		int oldNTasks = nTasks.get(vez);
-		nTasks.put(vez, oldNTasks+1);
+		nTasks[vez.id()]++;
 		// Increase totalTasks
+		taskList.add(task);
 		totalTasks++;
 
-		// Update cost
-		this.initCost();
+		// Only the route of vez changed
+		this.markDirty(vez);
 
 		return;
 	}
 
 
-	public Solution(List<Vehicle> vehicles, Set<Task> tasks) {
+	public Solution(List<Vehicle> vehicles, Set<Task> tasks, Atlante atlante) {
 		this.vehicles = vehicles;
-		this.firstActions = new HashMap<Vehicle, Node<Azione>>();
-		this.nTasks = new HashMap<Vehicle, Integer>();
+		this.atlante = atlante;
+		this.initVehicles();
+		this.taskList = new ArrayList<Task>(tasks);
+		this.taskVehicles = new HashMap<Integer, Vehicle>();
+		this.pickupNodes = new HashMap<Integer, Node<Azione>>();
+		this.deliveryNodes = new HashMap<Integer, Node<Azione>>();
 		this.totalTasks = tasks.size();
 		this.coin = new Random(15);
-
-		// Fill firstActions with null, and nTasks with 0, for each vehicle
-		for(Vehicle vehicle : vehicles) {
-			firstActions.put(vehicle, null);
-			nTasks.put(vehicle, 0);
-		}
+		this.initSampling();
 
 		// Place all tasks into vehicles
 		Iterator<Vehicle> vezIter = vehicles.iterator();
@@ -118,7 +139,7 @@ public class Solution {
 					vezIter = vehicles.iterator();
 				}
 				vez = vezIter.next();
-			} while(vez.capacity() < task.weight);	// Loops forever if no suitable vehicle exists
+			} while(capacities[vez.id()] < task.weight);	// Loops forever if no suitable vehicle exists
 
 			// Create Azioni and Nodes
 			Azione pickup = new Azione(task, Type.PICKUP);
@@ -127,12 +148,12 @@ public class Solution {
 			Node<Azione> deliveryNode = new Node<Azione>(delivery);
 
 			// Insert pickup and delivery to the head of the list of actions
-			deliveryNode.insertBefore(firstActions.get(vez));
+			deliveryNode.insertBefore(firstActions[vez.id()]);
 			pickupNode.insertBefore(deliveryNode);
-			firstActions.put(vez, pickupNode);
+			firstActions[vez.id()] = pickupNode;
+			indexTask(task, vez, pickupNode, deliveryNode);
 			// Increase nTasks
-			int oldNTasks = nTasks.get(vez);
-			nTasks.put(vez, oldNTasks+1);
+			nTasks[vez.id()]++;
 		}
 
 		// Compute the cost of this solution
@@ -144,39 +165,77 @@ public class Solution {
 
 	/**
 	 * Semi-shallow copy. Directly copies the reference of almost all the fields, except for
-	 * firstActions (whose vehicle keys are copied by reference and whose node values are recursively
-	 * shallow-copied), nTasks(which is shallow-copied), and coin (which is constructed anew).
+	 * firstActions (whose nodes are recursively shallow-copied), nTasks, vehicleCosts, dirtyCosts and
+	 * taskList (which are shallow-copied),
+	 * the task index (which is left to index(), since it has to point at the copied nodes), and coin (which
+	 * is constructed anew, seeded by the coin of other, so that copies do not all draw the same numbers).
 	 * @param other: the solution to be copied.
 	 */
 	public Solution(Solution other) {
+		long startNanos = Contatori.now();
 		this.vehicles = other.vehicles;
-		this.firstActions = new HashMap<Vehicle, Node<Azione>>();
-		this.nTasks = new HashMap<Vehicle, Integer>();
+		this.byCapacity = other.byCapacity;
+		this.atlante = other.atlante;
+		this.firstActions = newRoutes(other.firstActions.length);
+		this.capacities = other.capacities;
+		this.costsPerKm = other.costsPerKm;
+		this.startCities = other.startCities;
+		this.nTasks = other.nTasks.clone();
 		this.totalTasks = other.totalTasks;
-		this.coin = new Random(7);
+		this.taskList = new ArrayList<Task>(other.taskList);
+		this.taskVehicles = null;
+		this.pickupNodes = null;
+		this.deliveryNodes = null;
+		this.coin = new Random(other.coin.nextLong());
+		this.vehicleCosts = other.vehicleCosts.clone();
+		this.dirtyCosts = other.dirtyCosts.clone();
+		this.dirty = other.dirty;
 		this.cost = other.cost;
 
 		// Shallow copy of each of the action nodes
 		for(Vehicle vehicle : vehicles) {
-			Node<Azione> firstAction = other.firstActions.get(vehicle);
+			Node<Azione> firstAction = other.firstActions[vehicle.id()];
 
-			if(firstAction == null) {
-				this.firstActions.put(vehicle, null);
-			} else {
-				this.firstActions.put(vehicle, firstAction.copy());
+			if(firstAction != null) {
+				this.firstActions[vehicle.id()] = firstAction.copy();
 			}
 		}
 
-		// Shallow copy of each of the nTasks
+		Contatori.SLS.addCopyTime(startNanos);
+		return;
+	}
+
+
+	/**
+	 * Allocates the arrays indexed by vehicle id, with empty routes, and caches what the SLS reads of each
+	 * vehicle, so that the hot loops neither hash nor box.
+	 */
+	private void initVehicles() {
+		int nVehicles = vehicles.size();
+		this.firstActions = newRoutes(nVehicles);
+		this.capacities = new int[nVehicles];
+		this.costsPerKm = new int[nVehicles];
+		this.startCities = new City[nVehicles];
+		this.nTasks = new int[nVehicles];
+		this.vehicleCosts = new double[nVehicles];
+		this.dirtyCosts = new boolean[nVehicles];
+
 		for(Vehicle vehicle : vehicles) {
-			int numTasks = other.nTasks.get(vehicle);
-			this.nTasks.put(vehicle, numTasks);
+			capacities[vehicle.id()] = vehicle.capacity();
+			costsPerKm[vehicle.id()] = vehicle.costPerKm();
+			startCities[vehicle.id()] = vehicle.getCurrentCity();
 		}
 
 		return;
 	}
 
 
+	@SuppressWarnings("unchecked")
+	private static Node<Azione>[] newRoutes(int nVehicles) {
+		return (Node<Azione>[]) new Node<?>[nVehicles];
+	}
+
+
 	public void updateTasks(TaskSet tasks) {
 		Map<Integer, Task> idToNewTask = new HashMap<Integer, Task>();
 		for(Task task : tasks) {
@@ -184,7 +243,7 @@ public class Solution {
 		}
 
 		for(Vehicle vehicle : vehicles) {
-			Node<Azione> head = firstActions.get(vehicle);
+			Node<Azione> head = firstActions[vehicle.id()];
 			if(head == null) {
 				continue;
 			}
@@ -195,7 +254,46 @@ public class Solution {
 			}
 		}
 
+		for(int i = 0; i < taskList.size(); i++) {
+			taskList.set(i, idToNewTask.get(taskList.get(i).id));
+		}
+
+
+	}
+
+
+	/**
+	 * Since newTask must have the same pickup city, delivery city and weight as oldTask, the copy is feasible
+	 * and costs the same as this solution.
+	 * @param oldTask: a task in this solution
+	 * @param newTask: a task not in this solution, with the same signature as oldTask
+	 * @return a copy of this solution, where newTask takes the place of oldTask. This solution is not modified
+	 */
+	public Solution replaceTask(Task oldTask, Task newTask) {
+		Solution solution = new Solution(this);
+		Vehicle vez = solution.vehicleOf(oldTask);
+		Node<Azione> oldPickupNode = solution.pickupNodeOf(oldTask);
+		Node<Azione> oldDeliveryNode = solution.deliveryNodeOf(oldTask);
+
+		// The Azioni are shared with this solution: replace the nodes, not their elements
+		Node<Azione> pickupNode = new Node<Azione>(new Azione(newTask, Type.PICKUP));
+		Node<Azione> deliveryNode = new Node<Azione>(new Azione(newTask, Type.DELIVERY));
+		pickupNode.insertBefore(oldPickupNode);
+		oldPickupNode.unhook();
+		deliveryNode.insertBefore(oldDeliveryNode);
+		oldDeliveryNode.unhook();
+		if(solution.firstActions[vez.id()] == oldPickupNode) {
+			solution.firstActions[vez.id()] = pickupNode;
+		}
+
+		// Update the task index and the task list
+		solution.taskVehicles.remove(oldTask.id);
+		solution.pickupNodes.remove(oldTask.id);
+		solution.deliveryNodes.remove(oldTask.id);
+		solution.indexTask(newTask, vez, pickupNode, deliveryNode);
+		solution.taskList.set(solution.taskList.indexOf(oldTask), newTask);
 
+		return solution;
 	}
 
 	/* SLS METHODS */	
@@ -209,22 +307,22 @@ public class Solution {
 
 		// Fill the joint plan, vehicle by vehicle
 		for(Vehicle vehicle : vehicles) {
-			City currentCity = vehicle.getCurrentCity();
+			City currentCity = startCities[vehicle.id()];
 			Plan plan = new Plan(currentCity);
 
 			// If no tasks to deliver, skip
-			if(nTasks.get(vehicle) == 0) {
+			if(nTasks[vehicle.id()] == 0) {
 				// Append the plan to the end of joint plan
 				jointPlan.add(plan);
 				continue;
 			}
 
 			// Fill in each action, with the Moves in between
-			for(Node<Azione> actionNode : firstActions.get(vehicle)) {
+			for(Node<Azione> actionNode : firstActions[vehicle.id()]) {
 				// Move to the city where the action takes place
 				City actionCity = actionNode.getElement().getCity();
-				for(City transitCity : currentCity.pathTo(actionCity)) {
-					plan.appendMove(transitCity);
+				for(Move move : atlante.getMoves(currentCity, actionCity)) {
+					plan.append(move);
 				}
 
 				// Update currentCity
@@ -251,12 +349,10 @@ public class Solution {
 		Solution bestNeighbour;
 		Solution currentNeighbour;
 
-		// Find a vehicle with at least a task
-		logger.fine("Vamos a getRandomVehicle");
-		vez = getRandomVehicleByTask();
-		// Get one of its tasks a random
+		// Get a random task, and the vehicle carrying it
 		logger.fine("Vamos a getRandomTask");
-		taz = getRandomTask(vez);
+		taz = getRandomTask();
+		vez = vehicleOf(taz);
 
 		// Try all possible reorderings of taz within vez
 		logger.info("Vamos a findBestAssignment con vez-vez");
@@ -270,13 +366,9 @@ public class Solution {
 
 		// Get a different random vehicle
 		logger.fine("Vamos a ghettare un different randomVehicle");
-		Vehicle zio = vez;
-		int i;
-		for(i = 0; (i < MAXDIFFVEHICLES) && (zio == vez || zio.capacity() < taz.weight); i++) {
-			zio = getRandomVehicle();
-		}
-		// If we ran out of iterations, fall back to vez
-		if(i == MAXDIFFVEHICLES) {
+		Vehicle zio = getRandomVehicle(taz, vez);
+		// If no other vehicle can carry taz, fall back to vez
+		if(zio == null) {
 			return bestNeighbour;
 		}
 		logger.info("Vamos a findBestAssignment con vez-zio");
@@ -290,6 +382,58 @@ public class Solution {
 	}
 
 
+	/**
+	 * Inserts task at its cheapest position, among all the vehicles that can carry it. If atlante is
+	 * granular, only the positions near the cities of task are evaluated, as in findBestAssignment().
+	 * @param task: a task not in this solution
+	 * @return a new solution with task inserted. This solution is not modified
+	 */
+	Solution getBestInsertion(Task task) {
+		Solution headInsertion = new Solution(this);
+		headInsertion.addTask(task);
+
+		return headInsertion.getBestRelocation(task);
+	}
+
+
+	/**
+	 * Tries task in every position of every vehicle that can carry it.
+	 * @return the best relocation of task, or this solution if none is cheaper
+	 */
+	Solution getBestRelocation(Task task) {
+		Vehicle vez = vehicleOf(task);
+		Solution bestNeighbour = this;
+
+		for(Vehicle zio : vehicles) {
+			if(capacities[zio.id()] < task.weight) {
+				continue;
+			}
+			Solution currentNeighbour = findBestAssignment(vez, zio, task);
+			if(currentNeighbour.getCost() < bestNeighbour.getCost()) {
+				bestNeighbour = currentNeighbour;
+			}
+		}
+
+		return bestNeighbour;
+	}
+
+
+	/**
+	 * @return the tasks carried by the same vehicle as task, task included, in the order they are picked up
+	 */
+	List<Task> getRouteTasks(Task task) {
+		List<Task> routeTasks = new ArrayList<Task>();
+
+		for(Node<Azione> node : firstActions[vehicleOf(task).id()]) {
+			if(node.getElement().getType() == Type.PICKUP) {
+				routeTasks.add(node.getElement().getTask());
+			}
+		}
+
+		return routeTasks;
+	}
+
+
 	/**
 	 * @return a random neighbour.
 	 */
@@ -297,24 +441,14 @@ public class Solution {
 		Vehicle vez;
 		Task taz;
 
-		// Find a vehicle with at least a task
-		logger.fine("Vamos a getRandomVehicle");
-		vez = getRandomVehicleByTask();
-		// Get one of its tasks a random
+		// Get a random task, and the vehicle carrying it
 		logger.fine("Vamos a getRandomTask");
-		taz = getRandomTask(vez);
+		taz = getRandomTask();
+		vez = vehicleOf(taz);
 
 		// Get another random vehicle that can carry task
 		logger.fine("Vamos a ghettare un different randomVehicle");
-		Vehicle zio = vez;
-		int i;
-		for(i = 0; (i < MAXDIFFVEHICLES) && (zio.capacity() < taz.weight); i++) {
-			zio = getRandomVehicle();
-		}
-		// If we ran out of iterations, fall back to vez
-		if(i == MAXDIFFVEHICLES) {
-			zio = vez;
-		}
+		Vehicle zio = getRandomVehicle(taz, null);
 
 		// Try a random ordering of taz inside zio
 		logger.info("Vamos a findRandomAssignment con vez-zio");
@@ -322,76 +456,98 @@ public class Solution {
 	}
 
 
-	private Vehicle getRandomVehicle() {
-		// Random index in vehicles
-		int vezIndex = coin.nextInt(vehicles.size());
-		Vehicle vez = vehicles.get(vezIndex);
+	/**
+	 * Samples uniformly among the vehicles that can carry task, which are a prefix of byCapacity.
+	 * If excluded is one of them, it is swapped with the last one, which is then left out of the draw.
+	 * @param task: the task the vehicle has to carry
+	 * @param excluded: a vehicle not to return, or null
+	 * @return a random vehicle that can carry task, other than excluded; null if there is none
+	 */
+	private Vehicle getRandomVehicle(Task task, Vehicle excluded) {
+		int eligible = nEligible(task.weight);
+		if(excluded != null && capacities[excluded.id()] >= task.weight) {
+			eligible--;
+		}
+		if(eligible <= 0) {
+			return null;
+		}
+
+		// Random index in the eligible vehicles
+		Vehicle vez = byCapacity.get(coin.nextInt(eligible));
+		if(vez == excluded) {
+			vez = byCapacity.get(eligible);
+		}
 		return vez;
 	}
 
 
-	/* HELPERS */
-
-
 	/**
-	 * @return a random vehicle, with probability proportional to the number of carried tasks.
+	 * @return how many vehicles at the head of byCapacity can carry weight, found by binary search
 	 */
-	private Vehicle getRandomVehicleByTask() {
-		// Random int between 0 ant totalTasks-1.
-		int taskNum = coin.nextInt(totalTasks);
-
-		// We return as soon as we cumulatively exceed taskNum
-		int cumul = 0;
-		for(Vehicle vehicle : vehicles) {
-			cumul += nTasks.get(vehicle);
-
-			if(cumul > taskNum) {
-				return vehicle;
+	private int nEligible(int weight) {
+		int low = 0;
+		int high = byCapacity.size();
+
+		// Invariant: the first low vehicles can carry weight, the ones from high on cannot
+		while(low < high) {
+			int middle = (low + high) / 2;
+			if(capacities[byCapacity.get(middle).id()] >= weight) {
+				low = middle + 1;
+			} else {
+				high = middle;
 			}
 		}
 
-		// Should not happen
-		throw new RuntimeException("Could not find random vehicle. taskNum = " + taskNum +
-				", cumul = " + cumul + ", totalTasks = " + totalTasks);
+		return low;
 	}
 
 
 	/**
-	 * @param vehicle: the vehicle to sample a task from
-	 * @return
+	 * Sorts the vehicles by decreasing capacity.
 	 */
-	private Task getRandomTask(Vehicle vehicle) {
-		// Random int between 0 and nTasks-1
-		int taskNum = coin.nextInt(nTasks.get(vehicle));
-		// We return when we encounter the taskNum-th pickup
-		int nPickup = 0;
-		// No need to check for nTasks == 0, since this is only called on a vehicle returned by getRandomVehicle
-		for(Node<Azione> node : firstActions.get(vehicle)) {
-			if(node.getElement().getType() == Type.DELIVERY) {
-				continue;
+	private void initSampling() {
+		byCapacity = new ArrayList<Vehicle>(vehicles);
+		Collections.sort(byCapacity, new Comparator<Vehicle>() {
+			@Override
+			public int compare(Vehicle v1, Vehicle v2) {
+				return Integer.compare(v2.capacity(), v1.capacity());
 			}
+		});
+	}
+
+
+	/* HELPERS */
 
-			if(nPickup == taskNum) {
-				return node.getElement().getTask();
-			}
-			nPickup++;
-		}
 
-		// Should not happen
-		throw new RuntimeException("Could not find random task. taskNum = " + taskNum +
-				", nPickup = " + nPickup + ", nTasks[vehicle] = " + nTasks.get(vehicle));
+	/**
+	 * Since a task is carried by exactly one vehicle, this is the same as sampling a vehicle with
+	 * probability proportional to the number of carried tasks, and then one of its tasks.
+	 * @return a task, chosen uniformly at random
+	 */
+	private Task getRandomTask() {
+		return taskList.get(coin.nextInt(totalTasks));
 	}
 
 
 	/**
 	 * Copies the current solution, then takes out task from oldVeh, and tries to assign it in every 
 	 * possible way to newVeh. Returns the best assignment.
+	 * If atlante is granular, only the candidate assignments of findBestGranularAssignment() are tried,
+	 * unless none of them is admissible.
 	 * @param oldVeh: the old assignee of task
 	 * @param newVeh: the new assignee of task
 	 * @param task: the task to be relocated
 	 * @return the best assignment
 	 */
 	private Solution findBestAssignment(Vehicle oldVeh, Vehicle newVeh, Task task) {
+		// Try the granular candidates first, and walk everything only if none of them is admissible
+		if(atlante.isGranular()) {
+			Solution bestSolution = findBestGranularAssignment(oldVeh, newVeh, task);
+			if(bestSolution != null) {
+				return bestSolution;
+			}
+		}
+
 		Solution currentSolution = new Solution(this);
 		Solution bestSolution;
 		Node<Azione> pickupNode = new Node<Azione>(new Azione(task, Type.PICKUP));
@@ -402,8 +558,6 @@ public class Solution {
 			currentSolution.checkIntegrity();
 		}
 
-		logger.fine("oldVeh = " + oldVeh + ", newVeh = " + newVeh);
-
 		// Unassign task from oldVeh
 		logger.fine("Unassigning task from oldVeh");
 		//currentSolution.checkIntegrity();
@@ -414,34 +568,33 @@ public class Solution {
 		// Initialise bestSolution
 		bestSolution = new Solution(this);
 
+		int capacity = capacities[newVeh.id()];
 		// Outer do-while: place pickupNode
 		logger.fine("Begining outer loop");
 		pickupNode.unhook();
-		pickupNode.insertBefore(currentSolution.firstActions.get(newVeh));
-		currentSolution.firstActions.put(newVeh, pickupNode);
+		pickupNode.insertBefore(currentSolution.firstActions[newVeh.id()]);
+		currentSolution.firstActions[newVeh.id()] = pickupNode;
 		// Variables for outer loop
 		Node<Azione> lastSwitchedOuter;
 		int gropponeOuter = 0;
-		int nIterOuter = 0;
+		long nEvaluated = 0;
 		do{
 			// Inner do-while: place deliveryNode
-			logger.fine("Outer iteration " + nIterOuter++ + ".Beginning inner loop.");
 			deliveryNode.unhook();
 			deliveryNode.insertAfter(pickupNode);
 			// Variables for inner loop
 			Node<Azione> lastSwitchedInner;
 			int gropponeInner = gropponeOuter + task.weight;
-			int nIterInner = 0;
 			do {
-				logger.fine("Inner iteration " + nIterInner++);
-
 				// Break right away if capacity exceeded: cannot delay delivery further
-				if(gropponeInner > newVeh.capacity()) {
+				if(gropponeInner > capacity) {
 					logger.fine("Inner loop: capacity exceeded. Breaking");
 					break;
 				}
 
 				// Copy in bestSolution if currentSolution is better
+				currentSolution.markDirty(newVeh);
+				nEvaluated++;
 				if(bestSolution.getCost() > currentSolution.getCost()) {
 					logger.fine("Inner loop: found better solution. Copying");
 					//currentSolution.checkIntegrity();
@@ -455,8 +608,6 @@ public class Solution {
 
 				// Push the delivery back by one position
 				lastSwitchedInner = deliveryNode.pushBack();
-				logger.fine("lastSwitchedInner = " + lastSwitchedInner + ", deliveryNode.previous = " 
-						+ deliveryNode.getPrevious() + ", deliveryNode.next = " + deliveryNode.getNext());
 				// If delivery was already at the end, break
 				if (lastSwitchedInner == null) {
 					logger.fine("Inner loop: reached last position for delivery");
@@ -473,17 +624,14 @@ public class Solution {
 			}while(true);
 
 			// Inner loop ended
-			logger.fine("Inner loop ended after " + nIterInner + " iterations");
 			deliveryNode.unhook();
 
 			// Push the pickup back by one position
 			lastSwitchedOuter = pickupNode.pushBack();
 			// Notify to firstActions that pickupNode has been pushed back
-			if(currentSolution.firstActions.get(newVeh) == pickupNode && pickupNode.getPrevious() != null) {
-				currentSolution.firstActions.put(newVeh, pickupNode.getPrevious());
+			if(currentSolution.firstActions[newVeh.id()] == pickupNode && pickupNode.getPrevious() != null) {
+				currentSolution.firstActions[newVeh.id()] = pickupNode.getPrevious();
 			}
-			logger.fine("lastSwitchedOuter = " + lastSwitchedOuter + ", pickupNode.previous = " 
-					+ pickupNode.getPrevious() + ", pickupNode.next = " + pickupNode.getNext());
 			// If pickup was already at the end, break
 			if (lastSwitchedOuter == null) {
 				logger.fine("Outer loop: reached last position for pickup");
@@ -499,6 +647,7 @@ public class Solution {
 			}
 		}while(true);
 
+		Contatori.SLS.countMoves(nEvaluated);
 		bestSolution.updateNTasks();
 		if(logger.isLoggable(Level.FINE)) {
 			logger.fine("FINE FINDBEST: nTotalTasks = " + bestSolution.getNumTasks());
@@ -509,34 +658,194 @@ public class Solution {
 	}
 
 
-	private boolean isTaskPresent(Task task) {
-		boolean found = false;
-		for(Vehicle vehicle : vehicles) {
-			if(firstActions.get(vehicle) == null) {
+	/**
+	 * Same as findBestAssignment, but only tries the positions next to an action in a city near the city of
+	 * the inserted action, according to atlante. The delivery right after the pickup is always tried.
+	 * The route of newVeh (without task) is read once into arrays, so that each candidate costs O(1) and
+	 * nothing is copied but the returned solution.
+	 * @return the best of these assignments, or a copy of this solution if none of them is cheaper, or null
+	 * if none of them is admissible
+	 */
+	private Solution findBestGranularAssignment(Vehicle oldVeh, Vehicle newVeh, Task task) {
+		// The cities of the route of newVeh without task, and the load right before each of its actions
+		int nActions = 0;
+		for(Node<Azione> node = firstActions[newVeh.id()]; node != null; node = node.getNext()) {
+			nActions++;
+		}
+		City[] cities = new City[nActions];
+		int[] loads = new int[nActions + 1];
+		int m = 0;
+		for(Node<Azione> node = firstActions[newVeh.id()]; node != null; node = node.getNext()) {
+			Azione action = node.getElement();
+			if(action.getTask() == task) {
 				continue;
 			}
-			for(Node<Azione> node : firstActions.get(vehicle)) {
-				if(node.getElement().getTask() == task) {
-					found = true;
-					break;
+			cities[m] = action.getCity();
+			int weight = action.getTask().weight;
+			loads[m + 1] = loads[m] + ((action.getType() == Type.PICKUP) ? weight : -weight);
+			m++;
+		}
+
+		City start = startCities[newVeh.id()];
+		City pickupCity = task.pickupCity;
+		City deliveryCity = task.deliveryCity;
+		int maxLoad = capacities[newVeh.id()] - task.weight;
+		double bestDelta = Double.POSITIVE_INFINITY;
+		int bestPickupPos = -1;
+		int bestDeliveryPos = -1;
+
+		// The candidate positions of the delivery, in increasing order
+		int[] deliveryCandidates = new int[m + 1];
+		int nDeliveryCandidates = 0;
+		for(int pos = 0; pos <= m; pos++) {
+			if(isCandidate(cities, m, start, pos, deliveryCity)) {
+				deliveryCandidates[nDeliveryCandidates++] = pos;
+			}
+		}
+
+		// Outer loop: place the pickup before cities[pickupPos], if it is a candidate position
+		int overloadPos = 0;
+		int firstDelivery = 0;
+		long nEvaluated = 0;
+		for(int pickupPos = 0; pickupPos <= m; pickupPos++) {
+			if(!isCandidate(cities, m, start, pickupPos, pickupCity)) {
+				continue;
+			}
+			// The delivery cannot be delayed past the first position where task does not fit
+			overloadPos = Math.max(overloadPos, pickupPos);
+			while(overloadPos <= m && loads[overloadPos] <= maxLoad) {
+				overloadPos++;
+			}
+			if(overloadPos == pickupPos) {
+				continue;
+			}
+
+			City before = (pickupPos == 0) ? start : cities[pickupPos - 1];
+			double pickupDelta = atlante.distance(before, pickupCity);
+
+			// The delivery right after the pickup
+			nEvaluated++;
+			double candidateDelta = pickupDelta + atlante.distance(pickupCity, deliveryCity);
+			if(pickupPos < m) {
+				candidateDelta += atlante.distance(deliveryCity, cities[pickupPos]) -
+						atlante.distance(before, cities[pickupPos]);
+			}
+			if(bestDelta > candidateDelta) {
+				bestDelta = candidateDelta;
+				bestPickupPos = pickupPos;
+				bestDeliveryPos = pickupPos;
+			}
+			if(pickupPos == m) {
+				continue;
+			}
+			pickupDelta += atlante.distance(pickupCity, cities[pickupPos]) - atlante.distance(before, cities[pickupPos]);
+
+			// Inner loop: place the delivery before cities[deliveryPos], at the candidate positions
+			while(firstDelivery < nDeliveryCandidates && deliveryCandidates[firstDelivery] <= pickupPos) {
+				firstDelivery++;
+			}
+			for(int i = firstDelivery; i < nDeliveryCandidates && deliveryCandidates[i] < overloadPos; i++) {
+				int deliveryPos = deliveryCandidates[i];
+				nEvaluated++;
+				candidateDelta = pickupDelta + atlante.distance(cities[deliveryPos - 1], deliveryCity);
+				if(deliveryPos < m) {
+					candidateDelta += atlante.distance(deliveryCity, cities[deliveryPos]) -
+							atlante.distance(cities[deliveryPos - 1], cities[deliveryPos]);
+				}
+				if(bestDelta > candidateDelta) {
+					bestDelta = candidateDelta;
+					bestPickupPos = pickupPos;
+					bestDeliveryPos = deliveryPos;
 				}
-			}				
-		} 
-		return found;
+			}
+		}
+
+		Contatori.SLS.countMoves(nEvaluated);
+		if(bestPickupPos < 0) {
+			return null;
+		}
+
+		// Apply the best assignment to a copy, and keep it only if it is cheaper than this solution
+		Solution bestSolution = new Solution(this);
+		bestSolution.moveTask(oldVeh, newVeh, task, bestPickupPos, bestDeliveryPos);
+		if(bestSolution.getCost() >= getCost()) {
+			return new Solution(this);
+		}
+		if(logger.isLoggable(Level.FINE)) {
+			logger.fine("FINE FINDBESTGRANULAR: nTotalTasks = " + bestSolution.getNumTasks());
+			bestSolution.checkIntegrity();
+		}
+		return bestSolution;
+	}
+
+
+	/**
+	 * @return whether city is near the city right before cities[pos] (or start, if pos is 0) or the one at
+	 * cities[pos], the two cities between which an action inserted before cities[pos] takes place
+	 * @param m: the number of cities in cities
+	 */
+	private boolean isCandidate(City[] cities, int m, City start, int pos, City city) {
+		City before = (pos == 0) ? start : cities[pos - 1];
+
+		return atlante.isNear(city, before) || (pos < m && atlante.isNear(city, cities[pos]));
+	}
+
+
+	/**
+	 * Takes out task from oldVeh, and inserts it into newVeh, with its pickup before the action at
+	 * pickupPos and its delivery before the action at deliveryPos of the route of newVeh without task.
+	 * @param deliveryPos: at least pickupPos. If equal, the delivery is right after the pickup
+	 */
+	private void moveTask(Vehicle oldVeh, Vehicle newVeh, Task task, int pickupPos, int deliveryPos) {
+		unassignTask(oldVeh, task);
+
+		// The actions of the route of newVeh, now without task
+		List<Node<Azione>> route = new ArrayList<Node<Azione>>();
+		for(Node<Azione> node = firstActions[newVeh.id()]; node != null; node = node.getNext()) {
+			route.add(node);
+		}
+
+		Node<Azione> pickupNode = new Node<Azione>(new Azione(task, Type.PICKUP));
+		Node<Azione> deliveryNode = new Node<Azione>(new Azione(task, Type.DELIVERY));
+		if(pickupPos < route.size()) {
+			pickupNode.insertBefore(route.get(pickupPos));
+		} else {
+			pickupNode.insertAfter(route.isEmpty() ? null : route.get(route.size() - 1));
+		}
+		if(pickupPos == 0) {
+			firstActions[newVeh.id()] = pickupNode;
+		}
+		deliveryNode.insertAfter((deliveryPos == pickupPos) ? pickupNode : route.get(deliveryPos - 1));
+
+		indexTask(task, newVeh, pickupNode, deliveryNode);
+		deltaNTasks(oldVeh, -1);
+		deltaNTasks(newVeh, +1);
+		markDirty(newVeh);
+
+		return;
+	}
+
+
+	private boolean isTaskPresent(Task task) {
+		Node<Azione> pickupNode = pickupNodeOf(task);
+		Node<Azione> deliveryNode = deliveryNodeOf(task);
+
+		return pickupNode != null && deliveryNode != null && pickupNode.getElement().getTask() == task &&
+				deliveryNode.getElement().getTask() == task;
 	}
 
 
 	private void updateNTasks() {
 		for(Vehicle vehicle : vehicles) {
 			int numNodes = 0;
-			if(firstActions.get(vehicle) == null) {
+			if(firstActions[vehicle.id()] == null) {
 				numNodes = 0;
 			}else {
-				for(Node<Azione> node : firstActions.get(vehicle)) {
+				for(Node<Azione> node : firstActions[vehicle.id()]) {
 					numNodes++;
 				}				
 			}
-			this.nTasks.put(vehicle, numNodes/2);
+			this.nTasks[vehicle.id()] = numNodes/2;
 		}
 	}
 
@@ -545,11 +854,11 @@ public class Solution {
 	private int getNumTasks() {
 		int numNodes = 0;
 		for(Vehicle vehicle : vehicles) {
-			if(firstActions.get(vehicle) == null) {
+			if(firstActions[vehicle.id()] == null) {
 				continue;
 			}
 
-			for(Node<Azione> node : firstActions.get(vehicle)) {
+			for(Node<Azione> node : firstActions[vehicle.id()]) {
 				numNodes++;
 			}
 		}
@@ -580,39 +889,38 @@ public class Solution {
 		//currentSolution.deltaNTasks(oldVeh, -1);
 		//currentSolution.deltaNTasks(newVeh, +1);
 
-		int n = currentSolution.nTasks.get(newVeh);
+		int n = currentSolution.nTasks[newVeh.id()];
 		// Upper bound on the number of possible positions of pickup and delivery
 		int counter = coin.nextInt((2*n+1) * (n+1));  
 
+		int capacity = capacities[newVeh.id()];
 		// Outer do-while: place pickupNode
 		logger.fine("Begining outer loop");
 		pickupNode.unhook();
-		pickupNode.insertBefore(currentSolution.firstActions.get(newVeh));
-		currentSolution.firstActions.put(newVeh, pickupNode);
+		pickupNode.insertBefore(currentSolution.firstActions[newVeh.id()]);
+		currentSolution.firstActions[newVeh.id()] = pickupNode;
 		// Variables for outer loop
 		Node<Azione> lastSwitchedOuter;
 		int gropponeOuter = 0;
-		int nIterOuter = 0;
 		do{
 			// Inner do-while: place deliveryNode
-			logger.fine("Outer iteration " + nIterOuter++ + ".Beginning inner loop.");
 			deliveryNode.unhook();
 			deliveryNode.insertAfter(pickupNode);
 			// Variables for inner loop
 			Node<Azione> lastSwitchedInner;
 			int gropponeInner = gropponeOuter + task.weight;
-			int nIterInner = 0;
 			do {
-				logger.fine("Inner iteration " + nIterInner++);
-
 				// Break right away if capacity exceeded: cannot delay delivery further
-				if(gropponeInner > newVeh.capacity()) {
+				if(gropponeInner > capacity) {
 					logger.fine("Inner loop: capacity exceeded. Breaking");
 					break;
 				}
 
 				counter--;
 				if(counter == 0) {
+					Contatori.SLS.countMoves(1);
+					currentSolution.indexTask(task, newVeh, pickupNode, deliveryNode);
+					currentSolution.markDirty(newVeh);
 					currentSolution.updateNTasks();
 					if(logger.isLoggable(Level.FINE)) {
 						logger.fine("FINE FINDBEST: nTotalTasks = " + currentSolution.getNumTasks());
@@ -626,8 +934,6 @@ public class Solution {
 
 				// Push the delivery back by one position
 				lastSwitchedInner = deliveryNode.pushBack();
-				logger.fine("lastSwitchedInner = " + lastSwitchedInner + ", deliveryNode.previous = " 
-						+ deliveryNode.getPrevious() + ", deliveryNode.next = " + deliveryNode.getNext());
 				// If delivery was already at the end, break
 				if (lastSwitchedInner == null) {
 					logger.fine("Inner loop: reached last position for delivery");
@@ -644,17 +950,14 @@ public class Solution {
 			}while(true);
 
 			// Inner loop ended
-			logger.fine("Inner loop ended after " + nIterInner + " iterations");
 			deliveryNode.unhook();
 
 			// Push the pickup back by one position
 			lastSwitchedOuter = pickupNode.pushBack();
 			// Notify to firstActions that pickupNode has been pushed back
-			if(currentSolution.firstActions.get(newVeh) == pickupNode && pickupNode.getPrevious() != null) {
-				currentSolution.firstActions.put(newVeh, pickupNode.getPrevious());
+			if(currentSolution.firstActions[newVeh.id()] == pickupNode && pickupNode.getPrevious() != null) {
+				currentSolution.firstActions[newVeh.id()] = pickupNode.getPrevious();
 			}
-			logger.fine("lastSwitchedOuter = " + lastSwitchedOuter + ", pickupNode.previous = " 
-					+ pickupNode.getPrevious() + ", pickupNode.next = " + pickupNode.getNext());
 			// If pickup was already at the end, break
 			if (lastSwitchedOuter == null) {
 				logger.fine("Outer loop: reached last position for pickup");
@@ -672,6 +975,8 @@ public class Solution {
 
 		// If we haven't yet found anything, just return
 		deliveryNode.insertAfter(pickupNode);
+		currentSolution.indexTask(task, newVeh, pickupNode, deliveryNode);
+		currentSolution.markDirty(newVeh);
 		currentSolution.updateNTasks();
 		if(logger.isLoggable(Level.FINE)) {
 			logger.fine("FINE FINDBEST: nTotalTasks = " + currentSolution.getNumTasks());
@@ -685,24 +990,16 @@ public class Solution {
 	}
 
 
+	/**
+	 * Unhooks the nodes of task from the route of vehicle. The task index is left untouched, since the caller
+	 * is expected to insert the task somewhere else right away.
+	 */
 	private void unassignTask(Vehicle vehicle, Task task) {
-		Node<Azione> pickupNode = null;
-		Node<Azione> deliveryNode = null;
-		Node<Azione> headNode = this.firstActions.get(vehicle);
+		Node<Azione> headNode = this.firstActions[vehicle.id()];
 
 		// Find the pickup and the delivery nodes associated to task
-		logger.fine("Finding pickupNode and deliveryNode");
-		for(Node<Azione> node : headNode) {
-			if(node.getElement().getTask() != task) {
-				continue;
-			}
-			if(node.getElement().getType() == Type.PICKUP) {
-				pickupNode = node;
-			} else {
-				deliveryNode = node;
-				break;
-			}
-		}
+		Node<Azione> pickupNode = pickupNodeOf(task);
+		Node<Azione> deliveryNode = deliveryNodeOf(task);
 
 		// Assert both non null
 		if(pickupNode == null) {
@@ -719,73 +1016,199 @@ public class Solution {
 				restoredHead = restoredHead.getNext();
 			}
 
-			this.firstActions.put(vehicle, restoredHead);
+			this.firstActions[vehicle.id()] = restoredHead;
 		}
 
 		// Unhook them
 		logger.fine("Unhooking pickupNode and deliveryNode");
 		pickupNode.unhook();
 		deliveryNode.unhook();
+		this.markDirty(vehicle);
 
 		return;
 	}
 
 
 	private void deltaNTasks(Vehicle vehicle, int delta) {
-		int numTasks = this.nTasks.get(vehicle);
-		this.nTasks.put(vehicle, numTasks+delta);
+		nTasks[vehicle.id()] += delta;
+		return;
+	}
+
+
+	/**
+	 * Records vehicle, pickupNode and deliveryNode as the ones of task.
+	 */
+	private void indexTask(Task task, Vehicle vehicle, Node<Azione> pickupNode, Node<Azione> deliveryNode) {
+		index();
+		taskVehicles.put(task.id, vehicle);
+		pickupNodes.put(task.id, pickupNode);
+		deliveryNodes.put(task.id, deliveryNode);
+	}
+
+
+	/**
+	 * Builds the task index from the routes, unless it is already there.
+	 */
+	private void index() {
+		if(taskVehicles != null) {
+			return;
+		}
+
+		taskVehicles = new HashMap<Integer, Vehicle>();
+		pickupNodes = new HashMap<Integer, Node<Azione>>();
+		deliveryNodes = new HashMap<Integer, Node<Azione>>();
+		for(Vehicle vehicle : vehicles) {
+			if(firstActions[vehicle.id()] != null) {
+				indexRoute(vehicle);
+			}
+		}
+
 		return;
 	}
 
 
+	/**
+	 * @return the vehicle carrying task
+	 */
+	private Vehicle vehicleOf(Task task) {
+		index();
+		return taskVehicles.get(task.id);
+	}
+
+
+	/**
+	 * @return the node of the pickup of task
+	 */
+	private Node<Azione> pickupNodeOf(Task task) {
+		index();
+		return pickupNodes.get(task.id);
+	}
+
+
+	/**
+	 * @return the node of the delivery of task
+	 */
+	private Node<Azione> deliveryNodeOf(Task task) {
+		index();
+		return deliveryNodes.get(task.id);
+	}
+
+
+	/**
+	 * Records vehicle and the nodes in its route as the ones of the tasks it carries.
+	 */
+	private void indexRoute(Vehicle vehicle) {
+		for(Node<Azione> node : firstActions[vehicle.id()]) {
+			Task task = node.getElement().getTask();
+			taskVehicles.put(task.id, vehicle);
+			if(node.getElement().getType() == Type.PICKUP) {
+				pickupNodes.put(task.id, node);
+			} else {
+				deliveryNodes.put(task.id, node);
+			}
+		}
+	}
+
+
 	/* GETTERS AND SETTERS */
 
 
+	int getTotalTasks() {
+		return totalTasks;
+	}
+
+
 	/**
+	 * Only the routes that changed since the last call are walked again: for a clean solution, this is O(1).
 	 * @return the cost of this solution.
 	 */
 	public double getCost() {
-		initCost();
+		if(dirty) {
+			updateCost();
+		}
 		return cost;
 	}
 
 
 	/**
-	 * Calculates from scratch the cost of this solution, and sets the corresponding field.
+	 * Calculates from scratch the cost of this solution, and sets the corresponding fields.
 	 */
 	private void initCost() {
-		this.cost = 0;
-
-		// Compute the cost of each vehicle's journey
 		for(Vehicle vehicle : vehicles) {
-			City currentCity = vehicle.getCurrentCity();
-			Node<Azione> firstAction = firstActions.get(vehicle);
+			markDirty(vehicle);
+		}
+		updateCost();
 
-			// If no tasks assigned to this vehicle, continue
-			if(firstAction == null) {
-				continue;
-			}
+		return;
+	}
+
+
+	/**
+	 * Recomputes the cost of the dirty vehicles, and the cost of this solution.
+	 */
+	private void updateCost() {
+		long startNanos = Contatori.now();
+		double cost = 0;
 
-			// nextNode is always one step ahead of currentCity
-			for(Node<Azione> nextNode : firstAction) {
-				City nextCity = nextNode.getElement().getCity();
-				this.cost += vehicle.costPerKm() * currentCity.distanceTo(nextCity);
-				currentCity = nextCity;
+		for(Vehicle vehicle : vehicles) {
+			int v = vehicle.id();
+			if(dirtyCosts[v]) {
+				vehicleCosts[v] = routeCost(vehicle);
+				dirtyCosts[v] = false;
 			}
+			cost += vehicleCosts[v];
 		}
 
+		this.cost = cost;
+		dirty = false;
+
+		Contatori.SLS.addCostTime(startNanos);
 		return;
 	}
 
 
+	/**
+	 * @return the cost of the journey of vehicle, computed from scratch
+	 */
+	private double routeCost(Vehicle vehicle) {
+		double cost = 0;
+		int costPerKm = costsPerKm[vehicle.id()];
+		City currentCity = startCities[vehicle.id()];
+		Node<Azione> firstAction = firstActions[vehicle.id()];
+
+		// If no tasks assigned to this vehicle, it costs nothing
+		if(firstAction == null) {
+			return 0;
+		}
+
+		// nextNode is always one step ahead of currentCity
+		for(Node<Azione> nextNode : firstAction) {
+			City nextCity = nextNode.getElement().getCity();
+			cost += costPerKm * atlante.distance(currentCity, nextCity);
+			currentCity = nextCity;
+		}
+
+		return cost;
+	}
+
+
+	/**
+	 * Signals that the route of vehicle changed, so that its cost is computed again when needed.
+	 */
+	private void markDirty(Vehicle vehicle) {
+		dirtyCosts[vehicle.id()] = true;
+		dirty = true;
+	}
+
+
 	public void checkIntegrity() {
 		// Sum of the nTasks: must be totalTasks
 		int cumul = 0;
 
 		// Check every vehicle's integrity
 		for(Vehicle vehicle : vehicles) {
-			int numTasks = nTasks.get(vehicle);
-			Node<Azione> headNode = firstActions.get(vehicle);
+			int numTasks = nTasks[vehicle.id()];
+			Node<Azione> headNode = firstActions[vehicle.id()];
 			int nPickup = 0;
 			int nDelivery = 0;
 
@@ -808,7 +1231,7 @@ public class Solution {
 						headNode + ", headNode.previous = " + headNode.getPrevious());
 			}
 
-			for(Node<Azione> node : firstActions.get(vehicle)) {
+			for(Node<Azione> node : firstActions[vehicle.id()]) {
 				if(node.getElement().getType() == Type.PICKUP) {
 					nPickup++;
 				} else {
@@ -835,6 +1258,23 @@ public class Solution {
 			throw new RuntimeException("Integrity error: cumul != totalTasks. cumul = " + cumul +
 					", totalTasks = " + totalTasks);
 		}
+
+		// Check that the index points at each node
+		index();
+		for(Vehicle vehicle : vehicles) {
+			if(firstActions[vehicle.id()] == null) {
+				continue;
+			}
+			for(Node<Azione> node : firstActions[vehicle.id()]) {
+				int taskId = node.getElement().getTask().id;
+				Node<Azione> indexed = (node.getElement().getType() == Type.PICKUP) ? pickupNodes.get(taskId) :
+					deliveryNodes.get(taskId);
+				if(indexed != node || taskVehicles.get(taskId) != vehicle) {
+					throw new RuntimeException("Integrity error: task " + taskId + " not indexed at vehicle = " +
+							vehicle + ", node = " + node);
+				}
+			}
+		}
 	}
 
 
@@ -0,0 +1,242 @@
+package pakko;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import logist.agent.Agent;
+import logist.agent.AgentStatistics;
+import logist.config.ParserException;
+import logist.config.Parsers;
+import logist.simulation.Vehicle;
+import logist.simulation.VehicleImpl;
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * A test of the cache of askPrice(): it runs MyAuction, with the background refinement on, through a seeded
+ * synthetic auction. The agent wins NWON tasks, then loses a task, waits while the background thread refines
+ * the committed solution, and is offered a task with the same signature: askPrice() has to reuse the cached
+ * entry, since no task was won in between.
+ * It lives outside src/, so that it is never shipped with the agent. From the auction directory:
+ * <pre>
+ * javac -cp ../logist/logist.jar -sourcepath src:test -d test-bin test/pakko/ProvaListino.java
+ * java -cp test-bin:../logist/logist.jar pakko.ProvaListino
+ * </pre>
+ * It exits with status 1 if a check fails.
+ */
+public class ProvaListino {
+	private static final long SEED = 42;
+	private static final int NWON = 15;
+	private static final int NVEHICLES = 2;
+	private static final int CAPACITY = 30;
+	private static final int COSTPERKM = 5;
+	private static final int MAXWEIGHT = 10;
+	// How long the background thread refines the committed solution between the two offers
+	private static final long REFINE = 1000;
+	// What askPrice() prints when it reuses a cached entry
+	private static final String HIT = "askPrice reusing";
+
+
+
+	public static void main(String[] args) throws ParserException, InterruptedException {
+		Topology topology = Parsers.parseTopology("config/topology/england.xml");
+		Banditore agent = new Banditore(makeVehicles(topology));
+		// The valuation of the future tasks does not go through the cache
+		agent.properties.put("future-samples", 0);
+		MyAuction auction = new MyAuction();
+
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed, true));
+		try {
+			auction.setup(topology, new Uniforme(topology), agent);
+			Random coin = new Random(SEED + 1);
+			List<City> cities = topology.cities();
+			for(int id = 0; id < NWON; id++) {
+				offer(auction, makeTask(id, cities, coin), agent.id());
+			}
+			Task lost = makeTask(NWON, cities, coin);
+			offer(auction, lost, agent.id() + 1);
+			Thread.sleep(REFINE);
+			offer(auction, new Task(NWON + 1, lost.pickupCity, lost.deliveryCity, 0, lost.weight), agent.id() + 1);
+		} finally {
+			System.setOut(out);
+		}
+
+		int hits = 0;
+		for(String line : printed.toString().split("\n")) {
+			if(line.startsWith(HIT)) {
+				hits++;
+			}
+		}
+		check(hits == 1, "askPrice() reused " + hits + " cached entries instead of 1");
+		System.out.println("OK: the task offered again after " + REFINE + " ms of refinement hit the cache");
+
+		return;
+	}
+
+
+	/**
+	 * Auctions task to auction, and tells it that winner won.
+	 */
+	private static void offer(MyAuction auction, Task task, int winner) {
+		Long bid = auction.askPrice(task);
+		auction.auctionResult(task, winner, new Long[] {bid, bid});
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if(!condition) {
+			System.err.println("FAILED: " + message);
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * @return a task between random distinct cities, with a random weight up to MAXWEIGHT
+	 */
+	private static Task makeTask(int id, List<City> cities, Random coin) {
+		City pickupCity = cities.get(coin.nextInt(cities.size()));
+		City deliveryCity;
+		do {
+			deliveryCity = cities.get(coin.nextInt(cities.size()));
+		} while(deliveryCity == pickupCity);
+		return new Task(id, pickupCity, deliveryCity, 0, 1 + coin.nextInt(MAXWEIGHT));
+	}
+
+
+	/**
+	 * @return NVEHICLES vehicles with the same capacity and cost per km, based in random cities
+	 */
+	private static List<Vehicle> makeVehicles(Topology topology) {
+		Random coin = new Random(SEED);
+		List<City> cities = topology.cities();
+		List<Vehicle> vehicles = new ArrayList<Vehicle>(NVEHICLES);
+
+		for(int id = 0; id < NVEHICLES; id++) {
+			VehicleImpl vehicle = new VehicleImpl(id, "Furgone " + id, CAPACITY, COSTPERKM,
+					cities.get(coin.nextInt(cities.size())), 100, Color.BLUE);
+			// Places the vehicle in its home city
+			vehicle.beginRound(TaskSet.create(new Task[0]));
+			vehicles.add(vehicle.getInfo());
+		}
+
+		return vehicles;
+	}
+
+
+	/**
+	 * The agent of the test: it owns the vehicles, and reads its properties from a map instead of the
+	 * configuration file.
+	 */
+	private static class Banditore implements Agent {
+		private final List<Vehicle> vehicles;
+		private final Map<String, Object> properties;
+
+
+		Banditore(List<Vehicle> vehicles) {
+			this.vehicles = vehicles;
+			this.properties = new HashMap<String, Object>();
+		}
+
+		@Override
+		public int id() {
+			return 0;
+		}
+
+		@Override
+		public String name() {
+			return "Banditore";
+		}
+
+		@Override
+		public List<Vehicle> vehicles() {
+			return vehicles;
+		}
+
+		@Override
+		public TaskSet getTasks() {
+			return null;
+		}
+
+		@Override
+		public <T> T readProperty(String paramName, Class<T> clazz, T default_) {
+			Object value = properties.get(paramName);
+			return (value == null) ? default_ : clazz.cast(value);
+		}
+
+		@Override
+		public long getTotalDistanceUnits() {
+			return 0;
+		}
+
+		@Override
+		public double getTotalDistance() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalCost() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalReward() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalProfit() {
+			return 0;
+		}
+
+		@Override
+		public int getTotalTasks() {
+			return 0;
+		}
+
+		@Override
+		public int compareTo(AgentStatistics other) {
+			return 0;
+		}
+	}
+
+
+	/**
+	 * A distribution where every delivery city is equally likely.
+	 */
+	private static class Uniforme implements TaskDistribution {
+		private final int nCities;
+
+
+		Uniforme(Topology topology) {
+			this.nCities = topology.size();
+		}
+
+		@Override
+		public double probability(City from, City to) {
+			return 1.0 / nCities;
+		}
+
+		@Override
+		public int reward(City from, City to) {
+			return 0;
+		}
+
+		@Override
+		public int weight(City from, City to) {
+			return 1;
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package peppo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * An on-disk cache of the best solution found for each scenario, so that repeated runs start from it.
+ * A scenario is identified by a hash of the topology, the vehicles and the tasks, which names its file.
+ * Each file holds the routes of the vehicles, as encoded by Solution.exportRoutes():
+ * a header (MAGIC, VERSION, number of routes), then the length and the actions of each route.
+ */
+class Archivio {
+	private static final int MAGIC = 0x50455050;	// "PEPP"
+	private static final int VERSION = 1;
+	private final File directory;
+	private final Atlante atlante;
+	private final Logger logger;
+
+
+
+	/**
+	 * @param directory: where the solutions are stored. It is created when the first one is stored
+	 * @param atlante: the index of the topology, part of the identity of each scenario
+	 */
+	Archivio(File directory, Atlante atlante) {
+		this.directory = directory;
+		this.atlante = atlante;
+		this.logger = Logger.getLogger("affogalagoffa");
+	}
+
+
+	/**
+	 * @return the stored solution for vehicles and tasks, or null if there is none, or if it cannot be read
+	 */
+	Solution load(List<Vehicle> vehicles, TaskSet tasks) {
+		File file = getFile(vehicles, tasks);
+		if(!file.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unknown format");
+			}
+
+			int[][] routes = new int[in.readInt()][];
+			for(int v = 0; v < routes.length; v++) {
+				routes[v] = new int[in.readInt()];
+				for(int i = 0; i < routes[v].length; i++) {
+					routes[v][i] = in.readInt();
+				}
+			}
+
+			return new Solution(vehicles, tasks, atlante, routes);
+		} catch (IOException | IllegalArgumentException | NegativeArraySizeException exc) {
+			logger.warning("Ignoring the cached solution in " + file + ": " + exc);
+			return null;
+		}
+	}
+
+
+	/**
+	 * Stores solution for vehicles and tasks, replacing the one stored before, if any.
+	 * The file is written aside and then moved in place, so that readers never see half of it. If either
+	 * step fails, the file written aside is deleted.
+	 */
+	void store(Solution solution, List<Vehicle> vehicles, TaskSet tasks) {
+		File file = getFile(vehicles, tasks);
+		int[][] routes = solution.exportRoutes();
+
+		File temp = null;
+		try {
+			Files.createDirectories(directory.toPath());
+			temp = File.createTempFile(file.getName(), ".tmp", directory);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(routes.length);
+				for(int[] route : routes) {
+					out.writeInt(route.length);
+					for(int action : route) {
+						out.writeInt(action);
+					}
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException exc) {
+			logger.warning("Could not cache the solution in " + file + ": " + exc);
+		} finally {
+			// After a successful move, there is nothing left to delete
+			if(temp != null) {
+				try {
+					Files.deleteIfExists(temp.toPath());
+				} catch (IOException exc) {
+					logger.warning("Could not delete " + temp + ": " + exc);
+				}
+			}
+		}
+
+		return;
+	}
+
+
+	/**
+	 * @return the file of the scenario made of the topology, vehicles and tasks
+	 */
+	private File getFile(List<Vehicle> vehicles, TaskSet tasks) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException exc) {
+			throw new RuntimeException("SHA-256 is not available", exc);
+		}
+
+		// The topology: the names of the cities, and the distances between them
+		for(int from = 0; from < atlante.size(); from++) {
+			City city = atlante.getCity(from);
+			digest.update(city.name.getBytes(StandardCharsets.UTF_8));
+			for(int to = 0; to < atlante.size(); to++) {
+				updateDigest(digest, Double.doubleToLongBits(atlante.distance(city, atlante.getCity(to))));
+			}
+		}
+
+		// The vehicles, in order
+		for(Vehicle vehicle : vehicles) {
+			updateDigest(digest, vehicle.id());
+			updateDigest(digest, vehicle.capacity());
+			updateDigest(digest, vehicle.costPerKm());
+			updateDigest(digest, vehicle.getCurrentCity().id);
+		}
+
+		// The tasks
+		for(Task task : tasks) {
+			updateDigest(digest, task.id);
+			updateDigest(digest, task.pickupCity.id);
+			updateDigest(digest, task.deliveryCity.id);
+			updateDigest(digest, task.weight);
+		}
+
+		StringBuilder name = new StringBuilder();
+		for(byte b : digest.digest()) {
+			name.append(String.format("%02x", b));
+		}
+		return new File(directory, name.append(".bin").toString());
+	}
+
+
+	private static void updateDigest(MessageDigest digest, long value) {
+		for(int shift = 56; shift >= 0; shift -= 8) {
+			digest.update((byte) (value >>> shift));
+		}
+	}
+
+}
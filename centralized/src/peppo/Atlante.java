@@ -0,0 +1,156 @@
+package peppo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import logist.plan.Action.Move;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * An index of the topology, built once in setup(): all-pairs distances, next hops, Move sequences and
+ * the nearest cities to each city, keyed by City.id. It is never modified after construction, so it can be
+ * shared among threads.
+ * Each project keeps its own copy, since they are built and loaded separately: the copies only differ in
+ * their package.
+ */
+public class Atlante {
+	// The cities, indexed by id
+	private final City[] cities;
+	// The distance between each pair of cities
+	private final double[][] distances;
+	// The first city on the shortest path between each pair of cities (null on the diagonal)
+	private final City[][] nextHops;
+	// The Moves along the shortest path between each pair of cities (empty on the diagonal)
+	private final List<List<Move>> moves;
+	// Whether each city is among the granularity nearest cities to each city, or null if granularity is off
+	private final boolean[][] near;
+
+
+
+	/**
+	 * Without granularity: all cities are near each other.
+	 */
+	public Atlante(Topology topology) {
+		this(topology, 0);
+	}
+
+
+	/**
+	 * @param granularity: how many nearest cities (the city itself included) are kept for each city. If 0,
+	 * or at least the number of cities, all cities are near each other
+	 */
+	public Atlante(Topology topology, int granularity) {
+		int n = topology.size();
+		this.cities = new City[n];
+		this.distances = new double[n][n];
+		this.nextHops = new City[n][n];
+		this.moves = new ArrayList<List<Move>>(n * n);
+
+		for(City city : topology) {
+			cities[city.id] = city;
+		}
+
+		// Ask the topology for each shortest path once, and for nothing else afterwards
+		for(int from = 0; from < n; from++) {
+			for(int to = 0; to < n; to++) {
+				List<City> path = cities[from].pathTo(cities[to]);
+				List<Move> pathMoves = new ArrayList<Move>(path.size());
+
+				for(City transitCity : path) {
+					pathMoves.add(new Move(transitCity));
+				}
+				distances[from][to] = cities[from].distanceTo(cities[to]);
+				nextHops[from][to] = path.isEmpty() ? null : path.get(0);
+				moves.add(Collections.unmodifiableList(pathMoves));
+			}
+		}
+
+		this.near = (granularity > 0 && granularity < n) ? nearestCities(granularity) : null;
+	}
+
+
+	/**
+	 * @return for each pair of cities, whether the second is among the k nearest to the first
+	 */
+	private boolean[][] nearestCities(int k) {
+		int n = cities.length;
+		boolean[][] nearest = new boolean[n][n];
+
+		for(int from = 0; from < n; from++) {
+			final double[] fromDistances = distances[from];
+			Integer[] order = new Integer[n];
+			for(int to = 0; to < n; to++) {
+				order[to] = to;
+			}
+			// The city itself comes first, at distance 0
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer c1, Integer c2) {
+					return Double.compare(fromDistances[c1], fromDistances[c2]);
+				}
+			});
+
+			for(int i = 0; i < k; i++) {
+				nearest[from][order[i]] = true;
+			}
+		}
+
+		return nearest;
+	}
+
+
+	/**
+	 * @return the length of the shortest path from "from" to "to"
+	 */
+	public double distance(City from, City to) {
+		return distances[from.id][to.id];
+	}
+
+
+	/**
+	 * Allows to walk the shortest path from "from" to "to" without allocating it.
+	 * @return the city after "from" on the shortest path to "to", or null if they are the same city
+	 */
+	public City nextHop(City from, City to) {
+		return nextHops[from.id][to.id];
+	}
+
+
+	/**
+	 * @return the (immutable) Moves along the shortest path from "from" to "to"
+	 */
+	public List<Move> getMoves(City from, City to) {
+		return moves.get(from.id * cities.length + to.id);
+	}
+
+
+	/**
+	 * @return whether other is among the nearest cities to city. Always true if granularity is off
+	 */
+	public boolean isNear(City city, City other) {
+		return near == null || near[city.id][other.id];
+	}
+
+
+	/**
+	 * @return whether only some cities are near each city, so that insertions can be pruned
+	 */
+	public boolean isGranular() {
+		return near != null;
+	}
+
+
+	public City getCity(int id) {
+		return cities[id];
+	}
+
+
+	public int size() {
+		return cities.length;
+	}
+
+}
@@ -0,0 +1,200 @@
+package peppo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers of the SLS, cheap enough to be updated on the hot path: updating them never builds
+ * a string, and concurrent chains do not contend on them. They are shared by all the planners of the JVM,
+ * and can be read at any time through JMX (as type=Contatori in the domain named after the package), or
+ * logged with toString().
+ * Each project keeps its own copy, since they are built and loaded separately: the copies only differ in
+ * their package.
+ */
+public class Contatori implements ContatoriMXBean {
+	// The counters of this JVM, registered to the platform MBean server
+	public static final Contatori SLS = register(new Contatori());
+	private final LongAdder iterations = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder movesEvaluated = new LongAdder();
+	private final LongAdder resets = new LongAdder();
+	private final LongAdder copies = new LongAdder();
+	private final LongAdder copyNanos = new LongAdder();
+	private final LongAdder costNanos = new LongAdder();
+	private final LongAdder allocatedBytes = new LongAdder();
+	private volatile long clearTime = System.nanoTime();
+
+
+
+	private static Contatori register(Contatori contatori) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(contatori,
+					new ObjectName(Contatori.class.getPackage().getName() + ":type=Contatori"));
+		} catch (JMException exc) {
+			// Counters still work, they are just not visible through JMX
+		}
+		return contatori;
+	}
+
+
+	/* UPDATES */
+
+
+	/**
+	 * @param changed: whether the iteration changed the current solution
+	 */
+	public void countIteration(boolean changed) {
+		iterations.increment();
+		if(changed) {
+			accepted.increment();
+		}
+	}
+
+
+	public void countMoves(long nMoves) {
+		movesEvaluated.add(nMoves);
+	}
+
+
+	public void countReset() {
+		resets.increment();
+	}
+
+
+	/**
+	 * @param startNanos: the value of now() when the copy started
+	 */
+	public void addCopyTime(long startNanos) {
+		copies.increment();
+		copyNanos.add(System.nanoTime() - startNanos);
+	}
+
+
+	/**
+	 * @param startNanos: the value of now() when the cost evaluation started
+	 */
+	public void addCostTime(long startNanos) {
+		costNanos.add(System.nanoTime() - startNanos);
+	}
+
+
+	public void addAllocation(long bytes) {
+		allocatedBytes.add(bytes);
+	}
+
+
+	public static long now() {
+		return System.nanoTime();
+	}
+
+
+	/**
+	 * @return the bytes allocated so far by the current thread, or 0 if the JVM cannot measure them
+	 */
+	public static long threadAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			if(sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+				return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return 0;
+	}
+
+
+	/* READINGS */
+
+
+	@Override
+	public long getIterations() {
+		return iterations.sum();
+	}
+
+
+	@Override
+	public long getMovesEvaluated() {
+		return movesEvaluated.sum();
+	}
+
+
+	@Override
+	public double getMovesPerSecond() {
+		return movesEvaluated.sum() / ((System.nanoTime() - clearTime) / 1e9);
+	}
+
+
+	@Override
+	public double getAcceptanceRate() {
+		long nIterations = iterations.sum();
+		return (nIterations == 0) ? 0.0 : (double) accepted.sum() / nIterations;
+	}
+
+
+	@Override
+	public long getResets() {
+		return resets.sum();
+	}
+
+
+	@Override
+	public long getCopies() {
+		return copies.sum();
+	}
+
+
+	@Override
+	public double getCopyMillis() {
+		return copyNanos.sum() / 1e6;
+	}
+
+
+	@Override
+	public double getCostMillis() {
+		return costNanos.sum() / 1e6;
+	}
+
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes.sum();
+	}
+
+
+	@Override
+	public double getAllocatedBytesPerIteration() {
+		long nIterations = iterations.sum();
+		return (nIterations == 0) ? 0.0 : (double) allocatedBytes.sum() / nIterations;
+	}
+
+
+	/**
+	 * Resets all counters and timers. Updates concurrent with the reset may be lost.
+	 */
+	@Override
+	public void clear() {
+		iterations.reset();
+		accepted.reset();
+		movesEvaluated.reset();
+		resets.reset();
+		copies.reset();
+		copyNanos.reset();
+		costNanos.reset();
+		allocatedBytes.reset();
+		clearTime = System.nanoTime();
+	}
+
+
+	@Override
+	public String toString() {
+		return String.format("iterations = %d, moves evaluated = %d (%.0f/s), acceptance rate = %.3f, " +
+				"resets = %d, copies = %d (%.1f ms), cost evaluation = %.1f ms, allocated bytes per iteration = %.0f",
+				getIterations(), getMovesEvaluated(), getMovesPerSecond(), getAcceptanceRate(), getResets(),
+				getCopies(), getCopyMillis(), getCostMillis(), getAllocatedBytesPerIteration());
+	}
+
+}
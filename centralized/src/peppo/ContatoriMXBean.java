@@ -0,0 +1,40 @@
+package peppo;
+
+/**
+ * The counters and timers of the SLS, as exposed through JMX.
+ * All values are cumulative since the last call to clear().
+ */
+public interface ContatoriMXBean {
+
+	long getIterations();
+
+	long getMovesEvaluated();
+
+	double getMovesPerSecond();
+
+	/**
+	 * @return the fraction of iterations that changed the current solution
+	 */
+	double getAcceptanceRate();
+
+	/**
+	 * @return how many times a chain went back to its best solution
+	 */
+	long getResets();
+
+	long getCopies();
+
+	double getCopyMillis();
+
+	double getCostMillis();
+
+	/**
+	 * @return the bytes allocated by the SLS threads, or 0 if the JVM cannot measure them
+	 */
+	long getAllocatedBytes();
+
+	double getAllocatedBytesPerIteration();
+
+	void clear();
+
+}
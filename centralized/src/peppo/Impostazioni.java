@@ -0,0 +1,95 @@
+package peppo;
+
+import logist.agent.Agent;
+
+/**
+ * The parameters of the centralised agent, as set in its entry of agents.xml. The ones the entry does not set
+ * keep the defaults below, so a harness can also construct them without an agent, and change only a few.
+ */
+class Impostazioni {
+	long timeoutMargin = 100L;		// Subtracted from the plan timeout, for everything but the search
+	// The search run by each chain. epsThresh, epsRate and restartGap only apply to EPSGREEDY; tempStart and
+	// tempEnd only to ANNEALING; tabuTenure and tabuSamples only to TABU; lnsRemove, lnsRuin and lnsRegret
+	// only to LNS
+	Planner.Strategy strategy = Planner.Strategy.EPSGREEDY;
+	Solution.Init init = Solution.Init.ROUNDROBIN;	// How the initial solution is constructed
+	// The number of random moves each chain applies to the initial solution before improving it. With a
+	// constructive init, 0 lets the search start from the constructed solution
+	int nRandomise = 200;
+	double epsThresh = 0.4;			// The maximum value of epsilon
+	double epsRate = 1000.0;		// The value of epsilon eventually decreases as epsRate/t
+	int nChains = 1;				// The number of SLS chains run in parallel. If 0, one per available processor
+	// When a chain resets, it restarts from the shared best solution if its own best is worse than it by more
+	// than this ratio. If negative, chains never restart from the shared best
+	double restartGap = -1.0;
+	// The number of (task, vehicle) pairs each greedy step evaluates in parallel. If 1, greedy steps are the
+	// sequential Solution.getBestMove(). Ignored with more than one chain
+	int batchSize = 1;
+	double tempStart = 0.5;			// The initial temperature of annealing, relative to the average cost per task
+	double tempEnd = 0.001;			// The temperature of annealing at the timeout, relative as tempStart
+	int tabuTenure = 20;			// The number of iterations a task cannot go back to the vehicle it left
+	int tabuSamples = 10;			// The number of relocations sampled by each tabu step
+	int lnsRemove = 10;				// The number of tasks removed by each LNS step
+	Solution.Ruin lnsRuin = Solution.Ruin.MIXED;	// How the tasks removed by each LNS step are chosen
+	int lnsRegret = 2;				// The k of the regret-k insertion used by LNS, or 1 for cheapest insertion
+	int granularity = 0;			// The number of nearest cities tried by insertions, or 0 for all of them
+	// The chains stop before the timeout once (best cost - lower bound) / lower bound is at most maxGap. If
+	// negative, they always run until the timeout
+	double maxGap = 0.0;
+	String cacheDir = "";			// The directory of the solution cache, or empty for none
+
+
+
+	Impostazioni() {
+		super();
+	}
+
+
+	/**
+	 * Reads the parameters set in the entry of agent.
+	 * @throws IllegalArgumentException if strategy, init or lnsRuin is unknown
+	 */
+	Impostazioni(Agent agent) {
+		this();
+
+		// Reads the user-chosen timeout margin from the configuration file
+		timeoutMargin = agent.readProperty("timeout-margin", Long.class, timeoutMargin);
+
+		// Reads the user-chosen search strategy from the configuration file
+		strategy = Planner.Strategy.valueOf(agent.readProperty("search", String.class, strategy.name()).toUpperCase());
+
+		// Reads the user-chosen initial solution parameters from the configuration file
+		init = Solution.Init.valueOf(agent.readProperty("init", String.class, init.name()).toUpperCase());
+		nRandomise = agent.readProperty("n-randomise", Integer.class, nRandomise);
+
+		// Reads the user-chosen epsilon parameters from the configuration file
+		epsThresh = agent.readProperty("eps-thresh", Double.class, epsThresh);
+		epsRate = agent.readProperty("eps-rate", Double.class, epsRate);
+
+		// Reads the user-chosen parallel SLS parameters from the configuration file
+		nChains = agent.readProperty("n-chains", Integer.class, nChains);
+		restartGap = agent.readProperty("restart-gap", Double.class, restartGap);
+		batchSize = agent.readProperty("batch-size", Integer.class, batchSize);
+
+		// Reads the user-chosen annealing and tabu parameters from the configuration file
+		tempStart = agent.readProperty("temp-start", Double.class, tempStart);
+		tempEnd = agent.readProperty("temp-end", Double.class, tempEnd);
+		tabuTenure = agent.readProperty("tabu-tenure", Integer.class, tabuTenure);
+		tabuSamples = agent.readProperty("tabu-samples", Integer.class, tabuSamples);
+
+		// Reads the user-chosen large neighbourhood search parameters from the configuration file
+		lnsRemove = agent.readProperty("lns-remove", Integer.class, lnsRemove);
+		lnsRuin = Solution.Ruin.valueOf(agent.readProperty("lns-ruin", String.class, lnsRuin.name()).toUpperCase());
+		lnsRegret = agent.readProperty("lns-regret", Integer.class, lnsRegret);
+
+		// Reads the user-chosen number of nearest cities tried by insertions from the configuration file
+		granularity = agent.readProperty("granularity", Integer.class, granularity);
+
+		// Reads the user-chosen optimality gap at which planning stops early from the configuration file
+		maxGap = agent.readProperty("max-gap", Double.class, maxGap);
+
+		// Reads the user-chosen directory of the solution cache from the configuration file (empty: no cache)
+		cacheDir = agent.readProperty("cache-dir", String.class, cacheDir);
+	}
+
+}
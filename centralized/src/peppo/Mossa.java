@@ -0,0 +1,75 @@
+package peppo;
+
+/**
+ * A move of the SLS: takes a task out of the route of a vehicle, and inserts its pickup and delivery
+ * in the route of a (possibly the same) vehicle.
+ * Vehicles and tasks are identified by the indices the Solution uses for them.
+ */
+class Mossa {
+	private final int task;
+	private final int fromVehicle;
+	private final int toVehicle;
+	private final int pickupPos;
+	private final int deliveryPos;
+	private final double deltaCost;
+
+
+
+	/**
+	 * @param task: the index of the task to be relocated
+	 * @param fromVehicle: the index of the vehicle currently carrying task, or -1 for the insertion of a task
+	 * that is not carried by any vehicle
+	 * @param toVehicle: the index of the vehicle that will carry task
+	 * @param pickupPos: the pickup is inserted before this position in the route of toVehicle,
+	 * once task has been taken out of it
+	 * @param deliveryPos: the delivery is inserted before this position in the route of toVehicle,
+	 * once task has been taken out of it. Not smaller than pickupPos
+	 * @param deltaCost: the variation of the cost of the solution caused by this move
+	 */
+	Mossa(int task, int fromVehicle, int toVehicle, int pickupPos, int deliveryPos, double deltaCost) {
+		super();
+		this.task = task;
+		this.fromVehicle = fromVehicle;
+		this.toVehicle = toVehicle;
+		this.pickupPos = pickupPos;
+		this.deliveryPos = deliveryPos;
+		this.deltaCost = deltaCost;
+	}
+
+
+	int getTask() {
+		return task;
+	}
+
+
+	int getFromVehicle() {
+		return fromVehicle;
+	}
+
+
+	int getToVehicle() {
+		return toVehicle;
+	}
+
+
+	int getPickupPos() {
+		return pickupPos;
+	}
+
+
+	int getDeliveryPos() {
+		return deliveryPos;
+	}
+
+
+	double getDeltaCost() {
+		return deltaCost;
+	}
+
+
+	@Override
+	public String toString() {
+		return "Mossa [task=" + task + ", fromVehicle=" + fromVehicle + ", toVehicle=" + toVehicle +
+				", pickupPos=" + pickupPos + ", deliveryPos=" + deliveryPos + ", deltaCost=" + deltaCost + "]";
+	}
+}
@@ -5,6 +5,8 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import logist.LogistSettings;
 
 import logist.Measures;
@@ -25,12 +27,15 @@ import logist.topology.Topology.City;
 public class MyCentralised implements CentralizedBehavior {
 
 	private Topology topology;
+	private Atlante atlante;
 	private TaskDistribution distribution;
 	private Agent agent;
 	private long timeoutPlan;
-	private long timeoutMargin;
-	private double epsThresh;
-	private double epsRate;
+	private Impostazioni impostazioni;
+	private Archivio archivio;
+	// The planner of the running (or last) call to plan(), or null before the first one
+	private volatile Planner planner;
+	private static final Logger logger = Logger.getLogger(MyCentralised.class.getName());
 
 	@Override
 	public void setup(Topology topology, TaskDistribution distribution,
@@ -48,26 +53,44 @@ public class MyCentralised implements CentralizedBehavior {
 		// the plan method cannot execute more than timeout_plan milliseconds
 		timeoutPlan = ls.get(LogistSettings.TimeoutKey.PLAN);
 		
-		// Reads the user-chosen timeout margin from the configuration file
-		Long timeoutMarginName = agent.readProperty("timeout-margin", Long.class, 100L);
-
-		// Reads the user-chosen epsilon parameters from the configuration file
-		Double epsThreshName = agent.readProperty("eps-thresh", Double.class, 0.4);
-		Double epsRateName = agent.readProperty("eps-rate", Double.class, 1000.0);
+		// Reads the user-chosen parameters from the configuration file
+		// Throws IllegalArgumentException if the strategy, the init or the ruin is unknown
+		this.impostazioni = new Impostazioni(agent);
 		
 		this.topology = topology;
+		this.atlante = new Atlante(topology, impostazioni.granularity);
 		this.distribution = distribution;
 		this.agent = agent;
-		this.timeoutMargin = timeoutMarginName.longValue();
-		this.epsThresh = epsThreshName.doubleValue();
-		this.epsRate = epsRateName.doubleValue();
+		this.archivio = impostazioni.cacheDir.isEmpty() ? null :
+				new Archivio(new File(impostazioni.cacheDir), atlante);
 	}
 
 	@Override
 	public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
-		System.out.println("timeoutPlan = " + timeoutPlan + ", timeoutMargn = " + timeoutMargin);
-		Planner planner = new Planner(vehicles, tasks, epsThresh, epsRate, timeoutPlan-timeoutMargin);
+		System.out.println("timeoutPlan = " + timeoutPlan + ", timeoutMargn = " + impostazioni.timeoutMargin);
+		Planner planner = new Planner(vehicles, tasks, atlante, impostazioni, timeoutPlan-impostazioni.timeoutMargin);
+		planner.setArchivio(archivio);
+		// The listener only logs: without it, plan() does not start the thread that notifies it
+		if(logger.isLoggable(Level.INFO)) {
+			planner.setListener(new Planner.Listener() {
+				@Override
+				public void improved(double cost, long iteration, long elapsedTime) {
+					logger.info("New best cost = " + cost + ", iteration = " + iteration + ", elapsed time = " +
+							elapsedTime);
+				}
+			});
+		}
+		this.planner = planner;
 		return planner.plan();
 	}
 
+
+	/**
+	 * Can be called from any thread, to cancel() the running plan() or to read the best plans found so far.
+	 * @return the planner of the running (or last) call to plan(), or null before the first one
+	 */
+	Planner getPlanner() {
+		return planner;
+	}
+
 }
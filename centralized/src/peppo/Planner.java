@@ -1,43 +1,130 @@
 package peppo;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import logist.plan.Plan;
 import logist.simulation.Vehicle;
+import logist.task.Task;
 import logist.task.TaskSet;
+import logist.topology.Topology.City;
 
 
 /**
- * A centralised planner using an epsilon-greedy (with decreasing epsilon) stochastic local search.
+ * A centralised planner using a stochastic local search: epsilon-greedy (with decreasing epsilon),
+ * simulated annealing, tabu search or a ruin-and-recreate large neighbourhood search.
+ * Several independent chains can be run in parallel, sharing the best solution found so far.
+ * All chains stop early once the best solution is within maxGap of a lower bound on the cost.
+ * While plan() runs, other threads can read the best plans found so far, be notified of each improvement,
+ * or cancel the search.
  */
 class Planner {
+	// Enum class for the options for the search strategy
+	enum Strategy { EPSGREEDY, ANNEALING, TABU, LNS }
+
+	/**
+	 * Receives the improvements of the best solution, on a background thread, in order of decreasing cost.
+	 * If the listener is slower than the search, the intermediate improvements are skipped.
+	 * No plan is built for the listener: the ones that need the plans read them with getBestPlans().
+	 */
+	interface Listener {
+		/**
+		 * @param cost: the cost of the new best solution
+		 * @param iteration: the iteration of its chain at which it was found (0 for the initial phase)
+		 * @param elapsedTime: the time since planning started
+		 */
+		void improved(double cost, long iteration, long elapsedTime);
+	}
+
 	private static final int ITERSTOLOG = 10000;
-	private static final int NUMRANDOMISE = 200;
 	private static final int NUMBEST = 200;
 	private static final int ITERSRESET = 300;
+	private static final long SEED = 42;
+	// The share of the timeout the construction of the initial solution may take
+	private static final double INITSHARE = 0.25;
 	private static final Level LOGLEVEL = Level.ALL;
 	private List<Vehicle> vehicles;
 	private TaskSet tasks;
-	private Random coin;
+	private Atlante atlante;
+	private Strategy strategy;	// The search run by each chain
+	private Solution.Init init;	// How the initial solution is constructed
+	private int nRandomise;		// The number of random moves applied to a constructed initial solution by each chain
 	private double epsThresh;	// The maximum value of epsilon
 	private double epsRate;		// The value of epsilon eventually decreases as epsRate/t
+	private int nChains;		// The number of SLS chains run in parallel
+	private double restartGap;	// A chain restarts from the shared best if its best is worse by this ratio
+	private int batchSize;		// The number of neighbours evaluated in parallel by each greedy step
+	private double tempStart;	// The initial temperature of annealing, relative to the average cost per task
+	private double tempEnd;		// The temperature of annealing at the timeout, relative as tempStart
+	private int tabuTenure;		// The number of iterations a task cannot go back to the vehicle it left
+	private int tabuSamples;	// The number of relocations sampled by each tabu step
+	private int lnsRemove;		// The number of tasks removed by each LNS step
+	private Solution.Ruin lnsRuin;	// How the tasks removed by each LNS step are chosen
+	private int lnsRegret;		// The k of the regret-k insertion used by LNS, or 1 for cheapest insertion
+	private double maxGap;		// The chains stop once the best solution is within this ratio of lowerBound
 	private long timeout;
+	private double lowerBound;	// A lower bound on the cost of any solution
+	private volatile double startCost;	// The lowest cost a chain of the last plan() started its strategy from
 	private Logger logger;
+	// The best solution found by any chain. Solutions stored here are never modified
+	private final AtomicReference<Solution> sharedBest = new AtomicReference<Solution>();
+	private volatile boolean cancelled;
+	private Listener listener;
+	// The thread the listener is called on, while plan() runs
+	private ExecutorService notifier;
+	// Where the best solutions are cached across runs, or null
+	private Archivio archivio;
 
 
 
-	Planner(List<Vehicle> vehicles, TaskSet tasks, double epsThresh, double epsRate, long timeout) {
+	/**
+	 * @param atlante: the index of the topology, built in setup()
+	 * @param impostazioni: the parameters of the search (see Impostazioni). They are copied, so changing them
+	 * afterwards does not affect this planner
+	 * @param timeout: how long plan() may run
+	 */
+	Planner(List<Vehicle> vehicles, TaskSet tasks, Atlante atlante, Impostazioni impostazioni, long timeout) {
 		super();
 		this.vehicles = vehicles;
 		this.tasks = tasks;
-		this.epsThresh = epsThresh;
-		this.epsRate = epsRate;
+		this.atlante = atlante;
+		this.strategy = impostazioni.strategy;
+		this.init = impostazioni.init;
+		this.nRandomise = impostazioni.nRandomise;
+		this.epsThresh = impostazioni.epsThresh;
+		this.epsRate = impostazioni.epsRate;
+		this.nChains = impostazioni.nChains;
+		this.restartGap = impostazioni.restartGap;
+		this.batchSize = impostazioni.batchSize;
+		this.tempStart = impostazioni.tempStart;
+		this.tempEnd = impostazioni.tempEnd;
+		this.tabuTenure = impostazioni.tabuTenure;
+		this.tabuSamples = impostazioni.tabuSamples;
+		this.lnsRemove = impostazioni.lnsRemove;
+		this.lnsRuin = impostazioni.lnsRuin;
+		this.lnsRegret = impostazioni.lnsRegret;
+		this.maxGap = impostazioni.maxGap;
 		this.timeout = timeout;
 
-		this.coin = new Random(42);
+		if(this.nChains <= 0) {
+			this.nChains = Runtime.getRuntime().availableProcessors();
+		}
+		// Each chain already keeps a core busy: parallel batches would only compete with the other chains
+		if(this.nChains > 1) {
+			this.batchSize = 1;
+		}
 
 		this.logger = Logger.getLogger("affogalagoffa");
 		this.logger.setLevel(LOGLEVEL);
@@ -45,40 +132,178 @@ class Planner {
 
 
 	/**
-	 * Implements an epsilon-greedy (with decreasing epsilon) SLS.
+	 * Runs nChains SLS chains, each with its own seed, on a ForkJoinPool.
+	 * With a single chain, it runs in the calling thread.
 	 * @return the best joint plan found.
 	 */
 	List<Plan> plan(){
-		long startTime = System.currentTimeMillis();
-		long elapsedTime = 0L;
-		Solution currentSolution = new Solution(vehicles, tasks);
-		Solution bestSolution;
-		double epsilon;		// The probability to move to a random neighbour
-		
-		// Randomise currentSolution
-		for(int i = 0; i < NUMRANDOMISE; i++) {
-			currentSolution = currentSolution.getRandomNeighbour();
+		final long startTime = System.currentTimeMillis();
+		// A cancel() of the previous call does not stop this one
+		cancelled = false;
+		Contatori.SLS.clear();
+		startCost = Double.POSITIVE_INFINITY;
+		// Start from the cached solution, if any: it is the best of the previous runs
+		Solution cachedSolution = (archivio == null) ? null : archivio.load(vehicles, tasks);
+		Solution initialSolution = cachedSolution;
+		if(initialSolution == null) {
+			initialSolution = new Solution(vehicles, tasks, atlante, init, startTime + (long) (INITSHARE * timeout));
+		} else {
+			logger.info("Starting from the cached solution");
+		}
+
+		lowerBound = computeLowerBound();
+		logger.info("Lower bound = " + lowerBound + ", initial cost = " + initialSolution.getCost());
+
+		if(listener != null) {
+			notifier = Executors.newSingleThreadExecutor();
+		}
+		try {
+			sharedBest.set(initialSolution);
+			notifyListener(initialSolution, 0, startTime);
+			// A cached solution is the best of the previous runs: randomising it would throw that away
+			runChains(initialSolution, cachedSolution == null, startTime);
+		} finally {
+			// The pending notifications are still delivered, and the thread does not outlive a failed chain
+			if(notifier != null) {
+				notifier.shutdown();
+				notifier = null;
+			}
+		}
+
+		Solution bestSolution = sharedBest.get();
+		// Write back the best solution, if it improves on the cached one
+		if(archivio != null && (cachedSolution == null || bestSolution.getCost() < cachedSolution.getCost())) {
+			archivio.store(bestSolution, vehicles, tasks);
+		}
+
+		logger.info("Finished. elapsed time = " + (System.currentTimeMillis() - startTime) + 
+				", chains = " + nChains + ", best cost = " + bestSolution.getCost() + ", lower bound = " +
+				lowerBound + ", gap = " + getGap(bestSolution));
+		logger.info("Counters: " + Contatori.SLS);
+		return bestSolution.getJointPlan();
+	}
+
+
+	/**
+	 * Runs nChains chains from initialSolution: in the calling thread if there is only one, otherwise on a
+	 * ForkJoinPool. It returns when all of them are over.
+	 * @param randomise: whether each chain applies nRandomise random moves to its copy of initialSolution
+	 * @param startTime: the time at which planning started
+	 */
+	private void runChains(final Solution initialSolution, final boolean randomise, final long startTime) {
+		if(nChains == 1) {
+			runChain(0, initialSolution, randomise, startTime);
+			return;
+		}
+
+		// Each chain copies initialSolution itself: copying only reads it
+		List<Callable<Void>> chains = new ArrayList<Callable<Void>>();
+		for(int i = 0; i < nChains; i++) {
+			final int chain = i;
+			chains.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					runChain(chain, initialSolution, randomise, startTime);
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(nChains);
+		try {
+			for(Future<Void> result : pool.invokeAll(chains)) {
+				result.get();
+			}
+		} catch (InterruptedException | ExecutionException exc) {
+			throw new RuntimeException("A chain of the SLS failed", exc);
+		} finally {
+			pool.shutdown();
+		}
+
+		return;
+	}
+
+
+	/**
+	 * Brings a copy of initialSolution close to a local optimum, then runs the chosen strategy from there.
+	 * The best solutions found are published to sharedBest.
+	 * @param chain: the number of this chain, used to seed it
+	 * @param initialSolution: the solution to start from, which is not modified
+	 * @param randomise: whether to apply nRandomise random moves to the copy first
+	 * @param startTime: the time at which planning started
+	 */
+	private void runChain(int chain, Solution initialSolution, boolean randomise, long startTime){
+		Random coin = new Random(SEED + chain);
+		long startBytes = Contatori.threadAllocatedBytes();
+		// The copies that make random moves draw from the PRNG of this chain
+		Solution currentSolution = new Solution(initialSolution, coin);
+
+		// Randomise currentSolution, if required
+		for(int i = 0; randomise && i < nRandomise; i++) {
+			currentSolution.apply(currentSolution.getRandomMove());
 		}
-		// Improve currentSolution
-		for(int i = 0; i < NUMBEST; i++) {
-			currentSolution = currentSolution.getBestNeighbour();
+		// Improve currentSolution, within the timeout
+		for(int i = 0; i < NUMBEST && !isDone(System.currentTimeMillis() - startTime); i++) {
+			currentSolution.apply(getBestMove(currentSolution));
 		}
-		bestSolution = currentSolution;
+		recordStartCost(currentSolution.getCost());
+		publish(new Solution(currentSolution), 0, startTime);
+
+		switch (strategy) {
+		case EPSGREEDY:
+			runEpsGreedy(chain, coin, currentSolution, startTime);
+			break;
+		case ANNEALING:
+			runAnnealing(chain, coin, currentSolution, startTime);
+			break;
+		case TABU:
+			runTabu(chain, currentSolution, startTime);
+			break;
+		case LNS:
+			runLns(chain, coin, currentSolution, startTime);
+			break;
+		default:
+			throw new AssertionError("Should not happen.");
+		}
+
+		Contatori.SLS.addAllocation(Contatori.threadAllocatedBytes() - startBytes);
+	}
+
+
+	/**
+	 * Implements an epsilon-greedy (with decreasing epsilon) SLS.
+	 * Moves are applied in place to currentSolution: the only copies are the ones of new best solutions,
+	 * and the ones made when resetting currentSolution to bestSolution.
+	 * @param chain: the number of this chain
+	 * @param coin: the PRNG of this chain
+	 * @param currentSolution: the solution to start from, owned by this chain
+	 * @param startTime: the time at which planning started
+	 */
+	private void runEpsGreedy(int chain, Random coin, Solution currentSolution, long startTime){
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		Solution bestSolution = new Solution(currentSolution);
+		double epsilon;		// The probability to move to a random neighbour
 
 		int itersSinceBest = 0;
-		for(int nIter = 1; elapsedTime < timeout; nIter++) {
+		for(int nIter = 1; !isDone(elapsedTime); nIter++) {
 			// Do not log all iterations
 			if(nIter % ITERSTOLOG == 0) {
-				logger.info("Iteration " + nIter + ": elapsed time = " + elapsedTime + ", timeout = " + timeout
+				logger.info("Chain " + chain + ", iteration " + nIter + ": elapsed time = " + elapsedTime + ", timeout = " + timeout
 						+ 	", current cost = " + currentSolution.getCost() + ", best cost = " + 
 						bestSolution.getCost());
 			}
 
 			// If too long since we found the best, reset to best
 			if(itersSinceBest >= ITERSRESET) {
-				logger.info("Too long since we found bestSolution: resetting current to best");
-				currentSolution = bestSolution;
+				Solution shared = sharedBest.get();
+				// If this chain lags too far behind the shared best, restart from there
+				if(restartGap >= 0 && bestSolution.getCost() > shared.getCost() * (1 + restartGap)) {
+					logger.info("Chain " + chain + " is too far from sharedBest: restarting from sharedBest");
+					bestSolution = shared;
+				}
+				currentSolution = new Solution(bestSolution, coin);
 				itersSinceBest = 0;
+				Contatori.SLS.countReset();
 			}
 
 			/*
@@ -88,36 +313,403 @@ class Planner {
 			epsilon = epsThresh;
 
 			// Toss a coin
+			Mossa move;
 			if(coin.nextDouble() < epsilon) {
 				// With probability epsilon, move to random neighbour
 				if(nIter % ITERSTOLOG == 0) {
 					logger.info("Vamos a random");
 				}
-				currentSolution = currentSolution.getRandomNeighbour();
+				move = currentSolution.getRandomMove();
 			} 
 			else {
 				// Otherwise, move to best neighbour
 				if(nIter % ITERSTOLOG == 0) {
 					logger.info("Vamos ar colosseo");
 				}
-				currentSolution = currentSolution.getBestNeighbour();
+				move = getBestMove(currentSolution);
 			}
+			currentSolution.apply(move);
+			// The best move leaves the solution as it is, at no cost, when there is no better one
+			Contatori.SLS.countIteration(move.getDeltaCost() != 0.0);
 
 			// Increase itersSinceBest
 			itersSinceBest++;
 
 			// Update bestSolution, if necessary
 			if(currentSolution.getCost() < bestSolution.getCost()) {
-				bestSolution = currentSolution;
+				bestSolution = new Solution(currentSolution);
+				publish(bestSolution, nIter, startTime);
 				itersSinceBest = 0;
 			}
 
 			elapsedTime = System.currentTimeMillis() - startTime;
 		}
 
-		logger.info("Finished. elapsed time = " + elapsedTime + 	", current cost = " + 
+		logger.info("Chain " + chain + " finished. elapsed time = " + elapsedTime + 	", current cost = " + 
 				currentSolution.getCost() + ", best cost = " + bestSolution.getCost());
-		return bestSolution.getJointPlan();
+	}
+
+
+	/**
+	 * Implements simulated annealing: a random neighbour is accepted if it is better, or otherwise with
+	 * probability exp(-deltaCost/temperature). The temperature cools down geometrically with time, from
+	 * tempStart to tempEnd (both relative to the average cost per task of the starting solution), so that the
+	 * whole schedule fits in the timeout whatever the speed of the machine.
+	 * @param chain: the number of this chain
+	 * @param coin: the PRNG of this chain
+	 * @param currentSolution: the solution to start from, owned by this chain
+	 * @param startTime: the time at which planning started
+	 */
+	private void runAnnealing(int chain, Random coin, Solution currentSolution, long startTime){
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		Solution bestSolution = new Solution(currentSolution);
+		double costPerTask = currentSolution.getCost() / tasks.size();
+		double startTemp = tempStart * costPerTask;
+		double endTemp = tempEnd * costPerTask;
+		double temperature = startTemp;
+
+		for(int nIter = 1; !isDone(elapsedTime); nIter++) {
+			// Do not log all iterations
+			if(nIter % ITERSTOLOG == 0) {
+				logger.info("Chain " + chain + ", iteration " + nIter + ": elapsed time = " + elapsedTime +
+						", temperature = " + temperature + ", current cost = " + currentSolution.getCost() +
+						", best cost = " + bestSolution.getCost());
+			}
+
+			// Cool down
+			temperature = startTemp * Math.pow(endTemp / startTemp, (double) elapsedTime / timeout);
+
+			// Accept improvements always, and worsenings with the Metropolis probability
+			Mossa move = currentSolution.getRandomMove();
+			double delta = move.getDeltaCost();
+			boolean accepted = delta <= 0 || coin.nextDouble() < Math.exp(-delta / temperature);
+			Contatori.SLS.countIteration(accepted);
+			if(accepted) {
+				currentSolution.apply(move);
+
+				// Update bestSolution, if necessary
+				if(currentSolution.getCost() < bestSolution.getCost()) {
+					bestSolution = new Solution(currentSolution);
+					publish(bestSolution, nIter, startTime);
+				}
+			}
+
+			elapsedTime = System.currentTimeMillis() - startTime;
+		}
+
+		logger.info("Chain " + chain + " finished. elapsed time = " + elapsedTime + 	", current cost = " +
+				currentSolution.getCost() + ", best cost = " + bestSolution.getCost());
+	}
+
+
+	/**
+	 * Implements tabu search: at each step, the best among tabuSamples relocations of a task to a different
+	 * vehicle and an improving reordering of a task within its vehicle, if any, is applied, even if it
+	 * increases the cost. A task cannot go back to the vehicle it left for tabuTenure steps, unless that yields
+	 * a new best solution: so a reordered task cannot be reordered again for tabuTenure steps either.
+	 * Worsening reorderings are left out of the neighbourhood: they cost little, so they would be applied
+	 * instead of the relocations, which diversify the search.
+	 * @param chain: the number of this chain
+	 * @param currentSolution: the solution to start from, owned by this chain
+	 * @param startTime: the time at which planning started
+	 */
+	private void runTabu(int chain, Solution currentSolution, long startTime){
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		Solution bestSolution = new Solution(currentSolution);
+		// For each task and vehicle, the first iteration at which the task can go back to the vehicle
+		int[][] tabuUntil = new int[tasks.size()][vehicles.size()];
+
+		for(int nIter = 1; !isDone(elapsedTime); nIter++) {
+			// Do not log all iterations
+			if(nIter % ITERSTOLOG == 0) {
+				logger.info("Chain " + chain + ", iteration " + nIter + ": elapsed time = " + elapsedTime +
+						", current cost = " + currentSolution.getCost() + ", best cost = " + bestSolution.getCost());
+			}
+
+			// Find the best admissible move among the sampled relocations, and one improving reordering
+			Mossa bestMove = null;
+			for(int i = 0; i <= tabuSamples; i++) {
+				Mossa move = (i < tabuSamples) ? currentSolution.getBestRelocation() : currentSolution.getBestReorder();
+				if(move == null) {
+					continue;
+				}
+
+				// A tabu move is only admissible if it yields a new best solution
+				boolean tabu = tabuUntil[move.getTask()][move.getToVehicle()] > nIter;
+				if(tabu && currentSolution.getCost() + move.getDeltaCost() >= bestSolution.getCost()) {
+					continue;
+				}
+
+				if(bestMove == null || move.getDeltaCost() < bestMove.getDeltaCost()) {
+					bestMove = move;
+				}
+			}
+
+			// If all the sampled moves are tabu, or there is no other vehicle nor improving reordering, move greedily
+			if(bestMove == null) {
+				bestMove = getBestMove(currentSolution);
+			}
+
+			// Forbid the task to go back to the vehicle it leaves
+			tabuUntil[bestMove.getTask()][bestMove.getFromVehicle()] = nIter + tabuTenure;
+			currentSolution.apply(bestMove);
+			Contatori.SLS.countIteration(true);
+
+			// Update bestSolution, if necessary
+			if(currentSolution.getCost() < bestSolution.getCost()) {
+				bestSolution = new Solution(currentSolution);
+				publish(bestSolution, nIter, startTime);
+			}
+
+			elapsedTime = System.currentTimeMillis() - startTime;
+		}
+
+		logger.info("Chain " + chain + " finished. elapsed time = " + elapsedTime + 	", current cost = " +
+				currentSolution.getCost() + ", best cost = " + bestSolution.getCost());
+	}
+
+
+	/**
+	 * Implements a large neighbourhood search: at each step, lnsRemove related tasks are removed from a copy
+	 * of currentSolution and inserted back, and the copy replaces currentSolution if it is not worse.
+	 * Accepting equal costs lets the search drift across plateaus.
+	 * @param chain: the number of this chain
+	 * @param coin: the PRNG of this chain
+	 * @param currentSolution: the solution to start from, owned by this chain
+	 * @param startTime: the time at which planning started
+	 */
+	private void runLns(int chain, Random coin, Solution currentSolution, long startTime){
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		// currentSolution is never modified after being accepted, so it can be published as it is
+		Solution bestSolution = currentSolution;
+
+		for(int nIter = 1; !isDone(elapsedTime); nIter++) {
+			// Do not log all iterations
+			if(nIter % ITERSTOLOG == 0) {
+				logger.info("Chain " + chain + ", iteration " + nIter + ": elapsed time = " + elapsedTime +
+						", current cost = " + currentSolution.getCost() + ", best cost = " + bestSolution.getCost());
+			}
+
+			Solution candidate = new Solution(currentSolution, coin);
+			candidate.ruinAndRecreate(lnsRuin, lnsRemove, lnsRegret);
+
+			boolean accepted = candidate.getCost() <= currentSolution.getCost();
+			Contatori.SLS.countIteration(accepted);
+			if(accepted) {
+				currentSolution = candidate;
+			}
+
+			// Update bestSolution, if necessary
+			if(currentSolution.getCost() < bestSolution.getCost()) {
+				bestSolution = currentSolution;
+				publish(bestSolution, nIter, startTime);
+			}
+
+			elapsedTime = System.currentTimeMillis() - startTime;
+		}
+
+		logger.info("Chain " + chain + " finished. elapsed time = " + elapsedTime + 	", current cost = " +
+				currentSolution.getCost() + ", best cost = " + bestSolution.getCost());
+	}
+
+
+	/**
+	 * @return the move to the best neighbour of solution, sampled sequentially or in parallel according to batchSize
+	 */
+	private Mossa getBestMove(Solution solution) {
+		if(batchSize > 1) {
+			return solution.getBestMove(batchSize);
+		}
+		return solution.getBestMove();
+	}
+
+
+	/**
+	 * Combines three bounds, each valid on its own:
+	 * - some vehicle has to drive from its home city to the pickup city of each task, and then on to its
+	 * delivery city, so the cheapest way to do so for the most expensive task is a lower bound;
+	 * - each delivery city (of a task picked up elsewhere), and each pickup city that is not the home city of a
+	 * vehicle, has to be reached through one of its roads, and the arrivals in different cities are different
+	 * drives: the shortest road leading to each of them, paid at the lowest cost per km, adds up to a bound;
+	 * - each task has to be carried for at least the distance from its pickup to its delivery city, and a
+	 * vehicle carries at most its capacity at once, so it pays at least costPerKm / capacity for each unit of
+	 * weight carried for a km. The sum of the plain pickup-to-delivery distances is not a bound, because
+	 * vehicles carry several tasks at once.
+	 * @return a lower bound on the cost of any solution
+	 */
+	private double computeLowerBound() {
+		Set<City> homes = new HashSet<City>();
+		int minCostPerKm = Integer.MAX_VALUE;
+		double minCostPerWeightKm = Double.POSITIVE_INFINITY;
+		for(Vehicle vehicle : vehicles) {
+			homes.add(vehicle.getCurrentCity());
+			minCostPerKm = Math.min(minCostPerKm, vehicle.costPerKm());
+			minCostPerWeightKm = Math.min(minCostPerWeightKm, (double) vehicle.costPerKm() / vehicle.capacity());
+		}
+
+		double taskBound = 0.0;
+		double weightBound = 0.0;
+		Set<City> toReach = new HashSet<City>();
+		for(Task task : tasks) {
+			double cheapest = Double.POSITIVE_INFINITY;
+			for(Vehicle vehicle : vehicles) {
+				if(vehicle.capacity() >= task.weight) {
+					cheapest = Math.min(cheapest, vehicle.costPerKm() * (atlante.distance(vehicle.getCurrentCity(),
+							task.pickupCity) + atlante.distance(task.pickupCity, task.deliveryCity)));
+				}
+			}
+			taskBound = Math.max(taskBound, cheapest);
+			weightBound += minCostPerWeightKm * task.weight * atlante.distance(task.pickupCity, task.deliveryCity);
+
+			if(task.deliveryCity != task.pickupCity) {
+				toReach.add(task.deliveryCity);
+			}
+			if(!homes.contains(task.pickupCity)) {
+				toReach.add(task.pickupCity);
+			}
+		}
+
+		double arrivalBound = 0.0;
+		for(City city : toReach) {
+			double shortestRoad = Double.POSITIVE_INFINITY;
+			for(City neighbour : city.neighbors()) {
+				shortestRoad = Math.min(shortestRoad, atlante.distance(neighbour, city));
+			}
+			if(shortestRoad < Double.POSITIVE_INFINITY) {
+				arrivalBound += minCostPerKm * shortestRoad;
+			}
+		}
+
+		return Math.max(taskBound, Math.max(arrivalBound, weightBound));
+	}
+
+
+	/**
+	 * Sets the listener notified of each new best solution by the next call to plan().
+	 */
+	void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Sets the cache the next call to plan() starts from, and writes its best solution back to.
+	 */
+	void setArchivio(Archivio archivio) {
+		this.archivio = archivio;
+	}
+
+
+	/**
+	 * Can be called from any thread while plan() runs.
+	 * @return the joint plan of the best solution found so far, or null if plan() has not started yet
+	 */
+	List<Plan> getBestPlans() {
+		Solution best = sharedBest.get();
+		return (best == null) ? null : best.getJointPlan();
+	}
+
+
+	/**
+	 * Can be called from any thread while plan() runs.
+	 * @return the cost of the best solution found so far, or +infinity if plan() has not started yet
+	 */
+	double getBestCost() {
+		Solution best = sharedBest.get();
+		return (best == null) ? Double.POSITIVE_INFINITY : best.getCost();
+	}
+
+
+	/**
+	 * @return the lowest cost from which a chain of the last call to plan() started its strategy, after
+	 * randomising and improving its copy of the initial solution, or +infinity if no chain got that far
+	 */
+	double getStartCost() {
+		return startCost;
+	}
+
+
+	/**
+	 * Lowers startCost to cost, if cost is lower. Called by each chain once its initial phase is over.
+	 */
+	private synchronized void recordStartCost(double cost) {
+		startCost = Math.min(startCost, cost);
+	}
+
+
+	/**
+	 * Makes all chains stop at their next iteration, so that plan() returns the best solution found so far.
+	 * Can be called from any thread.
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+
+	/**
+	 * @return whether the chains have to stop: at the timeout, when cancelled, or when the gap is closed
+	 */
+	private boolean isDone(long elapsedTime) {
+		return elapsedTime >= timeout || cancelled || isGapClosed();
+	}
+
+
+	/**
+	 * @return whether the shared best solution is within maxGap of the lower bound
+	 */
+	private boolean isGapClosed() {
+		return maxGap >= 0 && sharedBest.get().getCost() <= lowerBound * (1 + maxGap);
+	}
+
+
+	/**
+	 * @return (cost - lower bound) / lower bound, or 0 if both are 0
+	 */
+	private double getGap(Solution solution) {
+		if(solution.getCost() <= lowerBound) {
+			return 0.0;
+		}
+		return (solution.getCost() - lowerBound) / lowerBound;
+	}
+
+
+	/**
+	 * Replaces sharedBest with solution, if solution is better, and notifies the listener.
+	 * @param solution: a solution that is not going to be modified anymore
+	 * @param iteration: the iteration of the chain at which solution was found
+	 * @param startTime: the time at which planning started
+	 */
+	private void publish(Solution solution, long iteration, long startTime) {
+		Solution shared;
+		do {
+			shared = sharedBest.get();
+			if(solution.getCost() >= shared.getCost()) {
+				return;
+			}
+		} while(!sharedBest.compareAndSet(shared, solution));
+
+		notifyListener(solution, iteration, startTime);
+	}
+
+
+	/**
+	 * Queues the notification of solution to the listener, if any. It is skipped if a better solution was
+	 * published in the meantime.
+	 */
+	private void notifyListener(final Solution solution, final long iteration, long startTime) {
+		if(notifier == null) {
+			return;
+		}
+
+		final long elapsedTime = System.currentTimeMillis() - startTime;
+		notifier.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(sharedBest.get() == solution) {
+					listener.improved(solution.getCost(), iteration, elapsedTime);
+				}
+			}
+		});
 	}
 
 }
@@ -1,35 +1,75 @@
 package peppo;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import logist.plan.Action;
+import logist.plan.Action.Move;
 import logist.plan.Plan;
 import logist.simulation.Vehicle;
 import logist.task.Task;
 import logist.task.TaskSet;
 import logist.topology.Topology.City;
-import peppo.Azione.Type;
 
 class Solution {
-	// The maximum number of times we look for a different vehicle to carry a task
-	private static final int MAXDIFFVEHICLES = 20;
+	// Enum class for the options for choosing the tasks removed by ruinAndRecreate
+	enum Ruin { RANDOM, GEOGRAPHIC, ROUTE, MIXED }
+	// Enum class for the options for constructing the initial solution
+	enum Init { ROUNDROBIN, CHEAPEST, REGRET }
+	// The k of the regret-k insertion used by the REGRET initial solution
+	private static final int INITREGRET = 2;
 	// The log level
 	private static final Level LOGLEVEL = Level.OFF;
-	// The first action for each agent
-	private Map<Vehicle, Node<Azione>> firstActions;
+	// The tasks, indexed by the number used to encode them in the routes. Shared among copies
+	private Task[] taskTable;
+	// The route of each vehicle, in the order of vehicles. Each action is encoded as an int:
+	// 2*taskIndex for a pickup, 2*taskIndex+1 for a delivery
+	private int[][] routes;
+	// For each vehicle, the load it carries right before each position of its route. The last entry is 0
+	private int[][] loads;
+	// For each vehicle, the distance it travelled right before each position of its route. The last entry
+	// is the length of the whole route
+	private double[][] odometers;
+	// For each task, the index of the vehicle carrying it
+	private int[] taskVehicles;
+	// For each task, the positions of its pickup and of its delivery in the route of its vehicle
+	private int[] pickupPositions;
+	private int[] deliveryPositions;
 	// List of vehicles: the order is to be respected when returning the joint plan
 	private List<Vehicle> vehicles;
-	// Map holding, for each vehicle, how many tasks it carries
-	private Map<Vehicle, Integer> nTasks;
+	// The distances and paths between cities. Shared among copies
+	private Atlante atlante;
+	// The capacity, cost per km and starting city of each vehicle, in the order of vehicles. Shared among copies
+	private int[] capacities;
+	private int[] costsPerKm;
+	private City[] startCities;
+	// How many tasks each vehicle carries, in the order of vehicles
+	private int[] nTasks;
 	// Total number of tasks
 	private int totalTasks;
-	// Cost of this solution:
+	// The indices of the vehicles, sorted by decreasing capacity. Shared among copies
+	private int[] byCapacity;
+	// The position of each vehicle in byCapacity. Shared among copies
+	private int[] capacityRanks;
+	// For each task, how many vehicles at the head of byCapacity can carry it. Shared among copies
+	private int[] nEligible;
+	// The number of tasks carried by each vehicle, in the order of byCapacity, for sampling
+	private Urna urna;
+	// Cost of the route of each vehicle, in the order of vehicles
+	private double[] vehicleCosts;
+	// Whether the route of each vehicle changed since its cost was computed
+	private boolean[] dirtyCosts;
+	// Whether any vehicle is dirty
+	private boolean dirty;
+	// Cost of this solution: the sum of vehicleCosts, when no vehicle is dirty
 	private double cost;
 	// PRNG
 	private Random coin;
@@ -39,7 +79,7 @@ class Solution {
 	static {
 		logger.setLevel(LOGLEVEL);
 	}
-	
+
 
 	/* CONSTRUCTORS */
 
@@ -48,92 +88,237 @@ class Solution {
 	 * Constructs an initial solution.
 	 * @param vehicles: the list of vehicles, whose order matters
 	 * @param tasks: the tasks to assign
+	 * @param atlante: the index of the topology
+	 * @param init: ROUNDROBIN assigns the tasks to the vehicles in turn, and puts each one at the head of the
+	 * route. CHEAPEST inserts the tasks one at a time, choosing each time the task and position whose insertion
+	 * costs the least among all vehicles. REGRET does the same, but chooses the task with the largest regret-2
 	 */
-	public Solution(List<Vehicle> vehicles, TaskSet tasks) {
-		this.vehicles = vehicles;
-		this.firstActions = new HashMap<Vehicle, Node<Azione>>();
-		this.nTasks = new HashMap<Vehicle, Integer>();
-		this.totalTasks = tasks.size();
-		this.coin = new Random(15);
+	public Solution(List<Vehicle> vehicles, TaskSet tasks, Atlante atlante, Init init) {
+		this(vehicles, tasks, atlante, init, Long.MAX_VALUE);
+	}
 
-		// Fill firstActions with null, and nTasks with 0, for each vehicle
-		for(Vehicle vehicle : vehicles) {
-			firstActions.put(vehicle, null);
-			nTasks.put(vehicle, 0);
-		}
 
-		// Place all tasks into vehicles
-		Iterator<Vehicle> vezIter = vehicles.iterator();
-		for(Task task : tasks) {
-			Vehicle vez;
-			int oldNTasks;
+	/**
+	 * Constructs an initial solution, within a deadline.
+	 * @param init: as in Solution(vehicles, tasks, atlante, init)
+	 * @param deadline: the time by which CHEAPEST and REGRET must be over. The tasks they have not inserted by
+	 * then are assigned round-robin, at the head of the routes
+	 */
+	Solution(List<Vehicle> vehicles, TaskSet tasks, Atlante atlante, Init init, long deadline) {
+		this(vehicles, tasks, atlante);
 
+		// Place all tasks into vehicles, if round-robin
+		int v = -1;
+		for(int taskIndex = 0; init == Init.ROUNDROBIN && taskIndex < totalTasks; taskIndex++) {
 			// Find first vehicle (from where you left) that has enough capacity
 			do {
-				if(!vezIter.hasNext()) {
-					vezIter = vehicles.iterator();
-				}
-				vez = vezIter.next();
-			} while(vez.capacity() < task.weight);	// Loops forever if no suitable vehicle exists
-
-			// Create Azioni and Nodes
-			Azione pickup = new Azione(task, Type.PICKUP);
-			Azione delivery = new Azione(task, Type.DELIVERY);
-			Node<Azione> pickupNode = new Node<Azione>(pickup);
-			Node<Azione> deliveryNode = new Node<Azione>(delivery);
+				v = (v + 1) % vehicles.size();
+			} while(capacity(v) < taskTable[taskIndex].weight);	// Loops forever if no suitable vehicle exists
 
 			// Insert pickup and delivery to the head of the list of actions
-			deliveryNode.insertBefore(firstActions.get(vez));
-			pickupNode.insertBefore(deliveryNode);
-			firstActions.put(vez, pickupNode);
+			routes[v] = insertActions(routes[v], taskIndex, 0, 0);
 			// Increase nTasks
-			oldNTasks = nTasks.get(vez);
-			nTasks.put(vez, oldNTasks+1);
+			nTasks[v]++;
 		}
 
-		// Compute the cost of this solution
-		this.initCost();
+		// Compute the profiles, the task index, the sampling structures and the cost
+		this.initRoutes();
+
+		// Otherwise, insert all tasks into the empty routes
+		if(init != Init.ROUNDROBIN) {
+			this.recreate(allTasks(), (init == Init.REGRET) ? INITREGRET : 1, deadline);
+		}
+
+		return;
+	}
+
+
+	/**
+	 * Constructs the solution with the given routes, encoded as by exportRoutes().
+	 * @param routes: the routes of the vehicles, in the order of vehicles
+	 * @throws IllegalArgumentException if routes are not a valid solution for vehicles and tasks
+	 */
+	Solution(List<Vehicle> vehicles, TaskSet tasks, Atlante atlante, int[][] routes) {
+		this(vehicles, tasks, atlante);
+
+		if(routes.length != vehicles.size()) {
+			throw new IllegalArgumentException("Expected " + vehicles.size() + " routes, found " + routes.length);
+		}
+
+		// Map the task ids to their indices
+		Map<Integer, Integer> indices = new HashMap<Integer, Integer>();
+		for(int task = 0; task < totalTasks; task++) {
+			indices.put(taskTable[task].id, task);
+		}
+
+		// Translate each route, checking that every task is picked up and then delivered by the same vehicle
+		boolean[] pickedUp = new boolean[totalTasks];
+		boolean[] delivered = new boolean[totalTasks];
+		int nDelivered = 0;
+		for(int v = 0; v < routes.length; v++) {
+			int[] route = new int[routes[v].length];
+			int load = 0;
+
+			for(int i = 0; i < route.length; i++) {
+				Integer task = (routes[v][i] < 0) ? null : indices.get(routes[v][i] / 2);
+				if(task == null) {
+					throw new IllegalArgumentException("Unknown task in route " + v);
+				}
+
+				if(routes[v][i] % 2 == 0) {
+					if(pickedUp[task]) {
+						throw new IllegalArgumentException("Task " + taskTable[task].id + " picked up twice");
+					}
+					pickedUp[task] = true;
+					taskVehicles[task] = v;
+					load += taskTable[task].weight;
+					route[i] = pickupCode(task);
+					nTasks[v]++;
+				} else {
+					if(!pickedUp[task] || delivered[task] || taskVehicles[task] != v) {
+						throw new IllegalArgumentException("Task " + taskTable[task].id + " delivered out of order");
+					}
+					delivered[task] = true;
+					load -= taskTable[task].weight;
+					route[i] = deliveryCode(task);
+					nDelivered++;
+				}
+
+				if(load > capacity(v)) {
+					throw new IllegalArgumentException("Vehicle " + v + " overloaded");
+				}
+			}
+			this.routes[v] = route;
+		}
+
+		if(nDelivered != totalTasks) {
+			throw new IllegalArgumentException((totalTasks - nDelivered) + " tasks are not delivered");
+		}
+
+		// Compute the profiles, the task index, the sampling structures and the cost
+		this.initRoutes();
+
+		return;
+	}
+
+
+	/**
+	 * Constructs a solution with empty routes, which the other constructors fill before calling initRoutes().
+	 */
+	private Solution(List<Vehicle> vehicles, TaskSet tasks, Atlante atlante) {
+		this.vehicles = vehicles;
+		this.atlante = atlante;
+		this.taskTable = new Task[tasks.size()];
+		this.routes = new int[vehicles.size()][];
+		this.loads = new int[vehicles.size()][];
+		this.odometers = new double[vehicles.size()][];
+		this.taskVehicles = new int[tasks.size()];
+		this.pickupPositions = new int[tasks.size()];
+		this.deliveryPositions = new int[tasks.size()];
+		this.vehicleCosts = new double[vehicles.size()];
+		this.dirtyCosts = new boolean[vehicles.size()];
+		this.capacities = new int[vehicles.size()];
+		this.costsPerKm = new int[vehicles.size()];
+		this.startCities = new City[vehicles.size()];
+		this.nTasks = new int[vehicles.size()];
+		this.totalTasks = tasks.size();
+		this.coin = new Random(15);
+
+		// Fill routes with empty routes, and cache what the SLS reads of each vehicle
+		for(int v = 0; v < vehicles.size(); v++) {
+			Vehicle vehicle = vehicles.get(v);
+			routes[v] = new int[0];
+			capacities[v] = vehicle.capacity();
+			costsPerKm[v] = vehicle.costPerKm();
+			startCities[v] = vehicle.getCurrentCity();
+		}
+
+		// Register the tasks
+		int taskIndex = 0;
+		for(Task task : tasks) {
+			taskTable[taskIndex] = task;
+			taskIndex++;
+		}
 
 		return;
 	}
 
 
+	/**
+	 * Semi-shallow copy, whose coin is constructed anew with a fixed seed (see Solution(Solution, Random)).
+	 * @param other: the solution to be copied.
+	 */
+	Solution(Solution other) {
+		this(other, new Random(7));
+		return;
+	}
+
+
 	/**
 	 * Semi-shallow copy. Directly copies the reference of almost all the fields, except for
-	 * firstActions (whose vehicle keys are copied by reference and whose node values are recursively
-	 * shallow-copied), nTasks(which is shallow-copied), and coin (which is constructed anew).
+	 * routes, loads, odometers, the task index, nTasks, vehicleCosts and dirtyCosts (whose arrays are cloned).
+	 * other is only read, so several threads can copy it at once.
 	 * @param other: the solution to be copied.
+	 * @param coin: the PRNG of the copy, e.g. the one of the chain that owns it. It is not copied
 	 */
-	private Solution(Solution other) {
+	Solution(Solution other, Random coin) {
+		long startNanos = Contatori.now();
 		this.vehicles = other.vehicles;
-		this.firstActions = new HashMap<Vehicle, Node<Azione>>();
-		this.nTasks = new HashMap<Vehicle, Integer>();
+		this.atlante = other.atlante;
+		this.taskTable = other.taskTable;
+		this.routes = new int[other.routes.length][];
+		this.loads = new int[other.routes.length][];
+		this.odometers = new double[other.routes.length][];
+		this.taskVehicles = other.taskVehicles.clone();
+		this.pickupPositions = other.pickupPositions.clone();
+		this.deliveryPositions = other.deliveryPositions.clone();
+		this.byCapacity = other.byCapacity;
+		this.capacityRanks = other.capacityRanks;
+		this.nEligible = other.nEligible;
+		this.urna = new Urna(other.urna);
+		this.capacities = other.capacities;
+		this.costsPerKm = other.costsPerKm;
+		this.startCities = other.startCities;
+		this.nTasks = other.nTasks.clone();
 		this.totalTasks = other.totalTasks;
-		this.coin = new Random(7);
+		this.coin = coin;
+		this.vehicleCosts = other.vehicleCosts.clone();
+		this.dirtyCosts = other.dirtyCosts.clone();
+		this.dirty = other.dirty;
 		this.cost = other.cost;
 
-		// Shallow copy of each of the action nodes
-		for(Vehicle vehicle : vehicles) {
-			Node<Azione> firstAction = other.firstActions.get(vehicle);
-
-			if(firstAction == null) {
-				this.firstActions.put(vehicle, null);
-			} else {
-				this.firstActions.put(vehicle, firstAction.copy());
-			}
-		}
-
-		// Shallow copy of each of the nTasks
-		for(Vehicle vehicle : vehicles) {
-			int numTasks = other.nTasks.get(vehicle);
-			this.nTasks.put(vehicle, numTasks);
+		// Clone each of the routes, with its profiles
+		for(int v = 0; v < routes.length; v++) {
+			this.routes[v] = other.routes[v].clone();
+			this.loads[v] = other.loads[v].clone();
+			this.odometers[v] = other.odometers[v].clone();
 		}
 
+		Contatori.SLS.addCopyTime(startNanos);
 		return;
 	}
 
 
-	/* SLS METHODS */	
+	/* SLS METHODS */
+
+
+	/**
+	 * @return the routes of this solution, in the order of vehicles. Each action is encoded as 2*task.id for
+	 * a pickup and 2*task.id+1 for a delivery, so that the encoding does not depend on the order of the TaskSet
+	 */
+	int[][] exportRoutes() {
+		int[][] exported = new int[routes.length][];
+
+		for(int v = 0; v < routes.length; v++) {
+			exported[v] = new int[routes[v].length];
+			for(int i = 0; i < routes[v].length; i++) {
+				int action = routes[v][i];
+				exported[v][i] = 2*taskTable[taskIndex(action)].id + (isPickup(action) ? 0 : 1);
+			}
+		}
+
+		return exported;
+	}
 
 
 	/**
@@ -143,30 +328,23 @@ class Solution {
 		List<Plan> jointPlan = new LinkedList<Plan>();
 
 		// Fill the joint plan, vehicle by vehicle
-		for(Vehicle vehicle : vehicles) {
-			City currentCity = vehicle.getCurrentCity();
+		for(int v = 0; v < vehicles.size(); v++) {
+			City currentCity = startCities[v];
 			Plan plan = new Plan(currentCity);
 
-			// If no tasks to deliver, skip
-			if(nTasks.get(vehicle) == 0) {
-				// Append the plan to the end of joint plan
-				jointPlan.add(plan);
-				continue;
-			}
-
 			// Fill in each action, with the Moves in between
-			for(Node<Azione> actionNode : firstActions.get(vehicle)) {
+			for(int action : routes[v]) {
 				// Move to the city where the action takes place
-				City actionCity = actionNode.getElement().getCity();
-				for(City transitCity : currentCity.pathTo(actionCity)) {
-					plan.appendMove(transitCity);
+				City actionCity = getCity(action);
+				for(Move move : atlante.getMoves(currentCity, actionCity)) {
+					plan.append(move);
 				}
 
 				// Update currentCity
 				currentCity = actionCity;
 
 				// Do the action
-				plan.append(actionNode.getElement().getAction());
+				plan.append(getAction(action));
 			}
 
 			// Append the plan to the end of joint plan
@@ -178,82 +356,233 @@ class Solution {
 
 
 	/**
-	 * @return the best among a random set of neighbours.
+	 * @return the move to the best among a random set of neighbours. This solution is not modified.
 	 */
-	Solution getBestNeighbour() {
-		Vehicle vez;
-		Task taz;
-		Solution bestNeighbour;
-		Solution currentNeighbour;
+	Mossa getBestMove() {
+		int vez;
+		int taz;
+		Mossa bestMove;
+		Mossa currentMove;
 
-		// Find a vehicle with at least a task
-		logger.fine("Vamos a getRandomVehicle");
-		vez = getRandomVehicle();
-		// Get one of its tasks a random
+		// Get a random task, and the vehicle carrying it
 		logger.fine("Vamos a getRandomTask");
-		taz = getRandomTask(vez);
+		taz = getRandomTask();
+		vez = taskVehicles[taz];
 
 		// Try all possible reorderings of taz within vez
-		logger.info("Vamos a findBestAssignment con vez-vez");
-		currentNeighbour = findBestAssignment(vez, vez, taz);
-		bestNeighbour = currentNeighbour;
+		logger.info("Vamos a findBestMove con vez-vez");
+		currentMove = findBestMove(vez, vez, taz);
+		bestMove = currentMove;
 
 		// If just one vehicle, return
 		if(vehicles.size() == 1) {
-			return bestNeighbour;
+			return bestMove;
 		}
 
 		// Get a different random vehicle
 		logger.fine("Vamos a ghettare un different randomVehicle");
-		Vehicle zio = vez;
-		int i;
-		for(i = 0; (i < MAXDIFFVEHICLES) && (zio == vez || zio.capacity() < taz.weight); i++) {
-			zio = getRandomVehicle();
+		int zio = getRandomVehicle(taz, vez);
+		// If no other vehicle can take taz, fall back to vez
+		if(zio < 0) {
+			return bestMove;
 		}
-		// If we ran out of iterations, fall back to vez
-		if(i == MAXDIFFVEHICLES) {
-			return bestNeighbour;
-		}
-		logger.info("Vamos a findBestAssignment con vez-zio");
+		logger.info("Vamos a findBestMove con vez-zio");
 		// Try all possible orderings of taz inside zio
-		currentNeighbour = findBestAssignment(vez, zio, taz);
-		if(currentNeighbour.getCost() < bestNeighbour.getCost()) {
-			bestNeighbour = currentNeighbour;
+		currentMove = findBestMove(vez, zio, taz);
+		if(currentMove.getDeltaCost() < bestMove.getDeltaCost()) {
+			bestMove = currentMove;
 		}
 
-		return bestNeighbour;
+		return bestMove;
 	}
 
 
 	/**
-	 * @return a random neighbour.
+	 * Samples batchSize (task, target vehicle) pairs, and evaluates the best assignment of each in parallel.
+	 * This solution is not modified, and must not be modified until this method returns.
+	 * @param batchSize: the number of pairs to sample
+	 * @return the move to the best among the sampled neighbours.
 	 */
-	Solution getRandomNeighbour() {
-		Vehicle vez;
-		Task taz;
+	Mossa getBestMove(int batchSize) {
+		int[] oldVehs = new int[batchSize];
+		int[] newVehs = new int[batchSize];
+		int[] tazs = new int[batchSize];
+
+		// Sample the pairs sequentially, since coin is not shared with the workers
+		for(int k = 0; k < batchSize; k++) {
+			int taz = getRandomTask();
+			int vez = taskVehicles[taz];
+
+			// Get a random vehicle that can carry taz, possibly vez itself
+			int zio = getRandomVehicle(taz, -1);
+
+			oldVehs[k] = vez;
+			newVehs[k] = zio;
+			tazs[k] = taz;
+		}
+
+		// Evaluate them on the current ForkJoinPool, or on the common one
+		return new BatchEvaluation(oldVehs, newVehs, tazs, 0, batchSize).invoke();
+	}
+
 
-		// Find a vehicle with at least a task
-		logger.fine("Vamos a getRandomVehicle");
-		vez = getRandomVehicle();
-		// Get one of its tasks a random
+	/**
+	 * Evaluates the best assignment of a range of sampled (task, target vehicle) pairs, splitting the range
+	 * in halves that are evaluated in parallel.
+	 */
+	private class BatchEvaluation extends RecursiveTask<Mossa> {
+		private static final long serialVersionUID = 1L;
+		private final int[] oldVehs;
+		private final int[] newVehs;
+		private final int[] tazs;
+		private final int from;
+		private final int to;
+
+		BatchEvaluation(int[] oldVehs, int[] newVehs, int[] tazs, int from, int to) {
+			this.oldVehs = oldVehs;
+			this.newVehs = newVehs;
+			this.tazs = tazs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Mossa compute() {
+			// A single pair: evaluate it right away
+			if(to - from == 1) {
+				return findBestMove(oldVehs[from], newVehs[from], tazs[from]);
+			}
+
+			// Otherwise, evaluate the two halves in parallel, and keep the best
+			int middle = (from + to) / 2;
+			BatchEvaluation left = new BatchEvaluation(oldVehs, newVehs, tazs, from, middle);
+			BatchEvaluation right = new BatchEvaluation(oldVehs, newVehs, tazs, middle, to);
+			left.fork();
+			Mossa rightMove = right.compute();
+			Mossa leftMove = left.join();
+
+			if(rightMove.getDeltaCost() < leftMove.getDeltaCost()) {
+				return rightMove;
+			}
+			return leftMove;
+		}
+	}
+
+
+	/**
+	 * @return the move to a random neighbour. This solution is not modified.
+	 */
+	Mossa getRandomMove() {
+		int vez;
+		int taz;
+
+		// Get a random task, and the vehicle carrying it
 		logger.fine("Vamos a getRandomTask");
-		taz = getRandomTask(vez);
+		taz = getRandomTask();
+		vez = taskVehicles[taz];
 
 		// Get another random vehicle that can carry task
 		logger.fine("Vamos a ghettare un different randomVehicle");
-		Vehicle zio = vez;
-		int i;
-		for(i = 0; (i < MAXDIFFVEHICLES) && (zio.capacity() < taz.weight); i++) {
-			zio = getRandomVehicle();
+		int zio = getRandomVehicle(taz, -1);
+
+		// Try a random ordering of taz inside zio
+		logger.info("Vamos a findRandomMove con vez-zio");
+		return findRandomMove(vez, zio, taz);
+	}
+
+
+	/**
+	 * Unlike getBestMove(), the task always leaves its vehicle, so the move may increase the cost.
+	 * This solution is not modified.
+	 * @return the move of a random task to the best position in a different random vehicle, or null if no
+	 * other vehicle can carry the task
+	 */
+	Mossa getBestRelocation() {
+		int taz = getRandomTask();
+		int vez = taskVehicles[taz];
+
+		int zio = getRandomVehicle(taz, vez);
+		if(zio < 0) {
+			return null;
+		}
+
+		return findBestMove(vez, zio, taz, true);
+	}
+
+
+	/**
+	 * Like getBestRelocation(), but within the vehicle of the task, and only if that decreases the cost.
+	 * This solution is not modified.
+	 * @return the move of a random task to the best positions in its own vehicle, or null if it is already
+	 * at its best positions
+	 */
+	Mossa getBestReorder() {
+		int taz = getRandomTask();
+		int vez = taskVehicles[taz];
+
+		Mossa move = findBestMove(vez, vez, taz);
+		if(move.getDeltaCost() >= 0.0) {
+			return null;
 		}
-		// If we ran out of iterations, fall back to vez
-		if(i == MAXDIFFVEHICLES) {
-			zio = vez;
+		return move;
+	}
+
+
+	/**
+	 * Moves this solution to a neighbour, in place.
+	 * @param move: a move returned by this solution, with no other move applied in between
+	 */
+	void apply(Mossa move) {
+		int task = move.getTask();
+		int fromVehicle = move.getFromVehicle();
+		int toVehicle = move.getToVehicle();
+
+		// Take task out of fromVehicle, and insert it into toVehicle
+		routes[fromVehicle] = removeActions(routes[fromVehicle], pickupPositions[task], deliveryPositions[task]);
+		routes[toVehicle] = insertActions(routes[toVehicle], task, move.getPickupPos(), move.getDeliveryPos());
+		deltaNTasks(fromVehicle, -1);
+		deltaNTasks(toVehicle, +1);
+		routeChanged(fromVehicle);
+		routeChanged(toVehicle);
+
+		if(logger.isLoggable(Level.FINE)) {
+			logger.fine("APPLY: " + move + ", isTaskStillPresent = " + isTaskPresent(task));
+			checkIntegrity();
 		}
 
-		// Try a random ordering of taz inside zio
-		logger.info("Vamos a findRandomAssignment con vez-zio");
-		return findRandomAssignment(vez, zio, taz);
+		return;
+	}
+
+
+	/**
+	 * Removes up to nRemove related tasks, then inserts them back one at a time, each at its cheapest
+	 * position in any vehicle. This solution is modified in place.
+	 * @param ruin: how the removed tasks are chosen. MIXED picks one of the other options at random
+	 * @param nRemove: the maximum number of tasks to remove
+	 * @param regret: if greater than 1, the next task to insert is the one with the largest regret-k value,
+	 * with k = regret: the sum of how much worse its best insertions into the next k-1 vehicles are than its
+	 * best one. Otherwise, it is the task with the cheapest insertion
+	 */
+	void ruinAndRecreate(Ruin ruin, int nRemove, int regret) {
+		int[] removed = chooseRuin(ruin, Math.min(nRemove, totalTasks));
+
+		// Ruin
+		for(int task : removed) {
+			int vehicle = taskVehicles[task];
+			routes[vehicle] = removeActions(routes[vehicle], pickupPositions[task], deliveryPositions[task]);
+			deltaNTasks(vehicle, -1);
+			routeChanged(vehicle);
+		}
+
+		// Recreate
+		recreate(removed, regret, Long.MAX_VALUE);
+
+		if(logger.isLoggable(Level.FINE)) {
+			logger.fine("RUIN AND RECREATE: " + removed.length + " tasks");
+			checkIntegrity();
+		}
+
+		return;
 	}
 
 
@@ -261,482 +590,961 @@ class Solution {
 
 
 	/**
-	 * @return a random vehicle, with probability proportional to the number of carried tasks.
+	 * Samples among the vehicles that can carry task, which are the first nEligible[task] in byCapacity,
+	 * by drawing a number in the urn restricted to them. If excluded is one of them, its tasks are left out
+	 * of the draw, and the draw is shifted past them.
+	 * @param task: the index of the task the vehicle has to carry
+	 * @param excluded: the index of a vehicle not to return, or -1
+	 * @return the index of a random vehicle that can carry task, other than excluded, with probability
+	 * proportional to the number of carried tasks; -1 if no such vehicle carries any task
 	 */
-	private Vehicle getRandomVehicle() {
-		// Random int between 0 ant totalTasks-1.
-		int taskNum = coin.nextInt(totalTasks);
+	private int getRandomVehicle(int task, int excluded) {
+		int eligible = nEligible[task];
+		int total = urna.prefixSum(eligible);
+		int excludedRank = -1;
+		int excludedTasks = 0;
+
+		// Leave out the tasks of excluded, if it could be drawn
+		if(excluded >= 0 && capacityRanks[excluded] < eligible) {
+			excludedRank = capacityRanks[excluded];
+			excludedTasks = urna.weight(excludedRank);
+			total -= excludedTasks;
+		}
+		if(total == 0) {
+			return -1;
+		}
 
-		// We return as soon as we cumulatively exceed taskNum
-		int cumul = 0;
-		for(Vehicle vehicle : vehicles) {
-			cumul += nTasks.get(vehicle);
+		// Random int between 0 and total-1, shifted past the tasks of excluded
+		int taskNum = coin.nextInt(total);
+		if(excludedRank >= 0 && taskNum >= urna.prefixSum(excludedRank)) {
+			taskNum += excludedTasks;
+		}
 
-			if(cumul > taskNum) {
-				return vehicle;
-			}
+		return byCapacity[urna.find(taskNum)];
+	}
+
+
+	/**
+	 * Since a task is carried by exactly one vehicle, this is the same as sampling a vehicle with
+	 * probability proportional to the number of carried tasks, and then one of its tasks.
+	 * @return the index of a task, chosen uniformly at random
+	 */
+	private int getRandomTask() {
+		return coin.nextInt(totalTasks);
+	}
+
+
+	/**
+	 * @return the indices of up to n distinct tasks, chosen according to ruin
+	 */
+	private int[] chooseRuin(Ruin ruin, int n) {
+		if(ruin == Ruin.MIXED) {
+			ruin = Ruin.values()[coin.nextInt(Ruin.MIXED.ordinal())];
 		}
 
-		// Should not happen
-		throw new RuntimeException("Could not find random vehicle. taskNum = " + taskNum +
-				", cumul = " + cumul + ", totalTasks = " + totalTasks);
+		switch (ruin) {
+		case RANDOM:
+			return sampleTasks(allTasks(), n);
+		case GEOGRAPHIC:
+			return closestTasks(getRandomTask(), n);
+		case ROUTE:
+			return sampleTasks(tasksOf(mostExpensiveVehicle()), n);
+		default:
+			throw new AssertionError("Should not happen.");
+		}
 	}
 
 
 	/**
-	 * @param vehicle: the vehicle to sample a task from
-	 * @return
+	 * Partial Fisher-Yates shuffle of candidates.
+	 * @return min(n, candidates.length) distinct tasks among candidates, chosen uniformly at random
 	 */
-	private Task getRandomTask(Vehicle vehicle) {
-		// Random int between 0 and nTasks-1
-		int taskNum = coin.nextInt(nTasks.get(vehicle));
-		// We return when we encounter the taskNum-th pickup
-		int nPickup = 0;
-		// No need to check for nTasks == 0, since this is only called on a vehicle returned by getRandomVehicle
-		for(Node<Azione> node : firstActions.get(vehicle)) {
-			if(node.getElement().getType() == Type.DELIVERY) {
-				continue;
-			}
+	private int[] sampleTasks(int[] candidates, int n) {
+		n = Math.min(n, candidates.length);
+
+		for(int i = 0; i < n; i++) {
+			int j = i + coin.nextInt(candidates.length - i);
+			int swap = candidates[i];
+			candidates[i] = candidates[j];
+			candidates[j] = swap;
+		}
+
+		return Arrays.copyOf(candidates, n);
+	}
 
-			if(nPickup == taskNum) {
-				return node.getElement().getTask();
+
+	/**
+	 * The relatedness of two tasks is the distance between their pickup cities plus the distance between
+	 * their delivery cities.
+	 * @return the n tasks most related to seed, seed included
+	 */
+	private int[] closestTasks(int seed, int n) {
+		final double[] relatedness = new double[totalTasks];
+		Task seedTask = taskTable[seed];
+		Integer[] order = new Integer[totalTasks];
+
+		for(int task = 0; task < totalTasks; task++) {
+			relatedness[task] = atlante.distance(seedTask.pickupCity, taskTable[task].pickupCity) +
+					atlante.distance(seedTask.deliveryCity, taskTable[task].deliveryCity);
+			order[task] = task;
+		}
+		// The seed is the only task guaranteed to have relatedness 0
+		relatedness[seed] = -1.0;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer t1, Integer t2) {
+				return Double.compare(relatedness[t1], relatedness[t2]);
 			}
-			nPickup++;
+		});
+
+		int[] closest = new int[n];
+		for(int i = 0; i < n; i++) {
+			closest[i] = order[i];
 		}
+		return closest;
+	}
 
-		// Should not happen
-		throw new RuntimeException("Could not find random task. taskNum = " + taskNum +
-				", nPickup = " + nPickup + ", nTasks[vehicle] = " + nTasks.get(vehicle));
+
+	/**
+	 * @return the index of the vehicle whose route costs the most
+	 */
+	private int mostExpensiveVehicle() {
+		// Make sure vehicleCosts is up to date
+		getCost();
+
+		int mostExpensive = 0;
+		for(int v = 1; v < vehicles.size(); v++) {
+			if(vehicleCosts[v] > vehicleCosts[mostExpensive]) {
+				mostExpensive = v;
+			}
+		}
+		return mostExpensive;
 	}
 
 
 	/**
-	 * Copies the current solution, then takes out task from oldVeh, and tries to assign it in every 
-	 * possible way to newVeh. Returns the best assignment.
-	 * @param oldVeh: the old assignee of task
-	 * @param newVeh: the new assignee of task
-	 * @param task: the task to be relocated
-	 * @return the best assignment
+	 * @return a new array with the indices of all tasks
 	 */
-	private Solution findBestAssignment(Vehicle oldVeh, Vehicle newVeh, Task task) {
-		Solution currentSolution = new Solution(this);
-		Solution bestSolution;
-		Node<Azione> pickupNode = new Node<Azione>(new Azione(task, Type.PICKUP));
-		Node<Azione> deliveryNode = new Node<Azione>(new Azione(task, Type.DELIVERY));
-		
-		if(logger.isLoggable(Level.FINE)) {
-			logger.fine("INIZIO FINDBEST: nTotalTasks = " + currentSolution.getNumTasks());
-			currentSolution.checkIntegrity();
+	private int[] allTasks() {
+		int[] tasks = new int[totalTasks];
+		for(int task = 0; task < totalTasks; task++) {
+			tasks[task] = task;
 		}
+		return tasks;
+	}
 
-		logger.fine("oldVeh = " + oldVeh + ", newVeh = " + newVeh);
 
-		// Unassign task from oldVeh
-		logger.fine("Unassigning task from oldVeh");
-		//currentSolution.checkIntegrity();
-		currentSolution.unassignTask(oldVeh, task);	// Until the end of the loop, currentSolution.nTasks is wrong
-		//currentSolution.deltaNTasks(oldVeh, -1);
-		//currentSolution.deltaNTasks(newVeh, +1);
+	/**
+	 * @return a new array with the indices of the tasks carried by vehicle
+	 */
+	private int[] tasksOf(int vehicle) {
+		int[] tasks = new int[nTasks[vehicle]];
+		int i = 0;
+		for(int action : routes[vehicle]) {
+			if(isPickup(action)) {
+				tasks[i++] = taskIndex(action);
+			}
+		}
+		return tasks;
+	}
 
-		// Initialise bestSolution
-		bestSolution = new Solution(this);
 
-		// Outer do-while: place pickupNode
-		logger.fine("Begining outer loop");
-		pickupNode.unhook();
-		pickupNode.insertBefore(currentSolution.firstActions.get(newVeh));
-		currentSolution.firstActions.put(newVeh, pickupNode);
-		// Variables for outer loop
-		Node<Azione> lastSwitchedOuter;
-		int gropponeOuter = 0;
-		int nIterOuter = 0;
-		do{
-			// Inner do-while: place deliveryNode
-			logger.fine("Outer iteration " + nIterOuter++ + ".Beginning inner loop.");
-			deliveryNode.unhook();
-			deliveryNode.insertAfter(pickupNode);
-			// Variables for inner loop
-			Node<Azione> lastSwitchedInner;
-			int gropponeInner = gropponeOuter + task.weight;
-			int nIterInner = 0;
-			do {
-				logger.fine("Inner iteration " + nIterInner++);
+	/**
+	 * Inserts the pending tasks, which are not in any route, one at a time. The best insertion of each pending
+	 * task into each vehicle is cached, and after each insertion only the ones into the modified vehicle are
+	 * computed again.
+	 * @param pending: the indices of the tasks to insert
+	 * @param regret: the k of the regret-k heuristic, or 1 (or less) for cheapest insertion
+	 * @param deadline: the time by which the insertions must be over. The tasks still pending then are
+	 * assigned round-robin, at the head of the routes
+	 */
+	private void recreate(int[] pending, int regret, long deadline) {
+		// The best insertion of each pending task into each vehicle; null if the vehicle cannot carry it
+		Mossa[][] insertions = new Mossa[pending.length][vehicles.size()];
+		boolean[] inserted = new boolean[pending.length];
+
+		for(int i = 0; i < pending.length; i++) {
+			for(int rank = 0; rank < nEligible[pending[i]]; rank++) {
+				int vehicle = byCapacity[rank];
+				insertions[i][vehicle] = findBestInsertion(pending[i], -1, vehicle, routes[vehicle], loads[vehicle], 0.0);
+			}
+		}
 
-				// Break right away if capacity exceeded: cannot delay delivery further
-				if(gropponeInner > newVeh.capacity()) {
-					logger.fine("Inner loop: capacity exceeded. Breaking");
-					break;
-				}
+		for(int n = 0; n < pending.length; n++) {
+			// Out of time: give up the heuristic for the tasks still pending
+			if(System.currentTimeMillis() >= deadline) {
+				logger.info("Construction out of time: " + (pending.length - n) + " tasks assigned round-robin");
+				assignRoundRobin(pending, inserted, insertions);
+				break;
+			}
 
-				// Copy in bestSolution if currentSolution is better
-				if(bestSolution.getCost() > currentSolution.getCost()) {
-					logger.fine("Inner loop: found better solution. Copying");
-					//currentSolution.checkIntegrity();
-					bestSolution = new Solution(currentSolution);
-					if(logger.isLoggable(Level.FINE)) {
-						logger.fine("DENTROOO FINDBEST: nTotalTasks = " + bestSolution.getNumTasks());
-						logger.fine("DENTROOO FINDBEST: isTaskStillPresent = " + 
-								bestSolution.isTaskPresent(task));
-					}
+			// Choose the next task to insert, and where
+			int next = -1;
+			double nextPriority = Double.NEGATIVE_INFINITY;
+			Mossa nextMove = null;
+			for(int i = 0; i < pending.length; i++) {
+				if(inserted[i]) {
+					continue;
 				}
 
-				// Push the delivery back by one position
-				lastSwitchedInner = deliveryNode.pushBack();
-				logger.fine("lastSwitchedInner = " + lastSwitchedInner + ", deliveryNode.previous = " 
-						+ deliveryNode.getPrevious() + ", deliveryNode.next = " + deliveryNode.getNext());
-				// If delivery was already at the end, break
-				if (lastSwitchedInner == null) {
-					logger.fine("Inner loop: reached last position for delivery");
-					break;
+				Mossa bestMove = bestInsertion(insertions[i]);
+				if(bestMove == null) {
+					throw new RuntimeException("No vehicle can carry task " + taskTable[pending[i]].id);
 				}
-				// Otherwise, if we went past a pickup, increase gropponeInner
-				if(lastSwitchedInner.getElement().getType() == Type.PICKUP) {
-					gropponeInner += lastSwitchedInner.getElement().getTask().weight;
+				double priority = (regret > 1) ? regretValue(insertions[i], bestMove, regret) : 0.0;
+				// Break ties (always, for cheapest insertion) by the cheapest insertion
+				if(next < 0 || priority > nextPriority ||
+						(priority == nextPriority && bestMove.getDeltaCost() < nextMove.getDeltaCost())) {
+					next = i;
+					nextPriority = priority;
+					nextMove = bestMove;
 				}
-				// Otherwise, decrease gropponeInner
-				else {
-					gropponeInner -= lastSwitchedInner.getElement().getTask().weight;
+			}
+
+			// Insert it
+			int vehicle = nextMove.getToVehicle();
+			routes[vehicle] = insertActions(routes[vehicle], pending[next], nextMove.getPickupPos(),
+					nextMove.getDeliveryPos());
+			deltaNTasks(vehicle, +1);
+			routeChanged(vehicle);
+			inserted[next] = true;
+
+			// Only the insertions into vehicle changed
+			for(int i = 0; i < pending.length; i++) {
+				if(!inserted[i] && insertions[i][vehicle] != null) {
+					insertions[i][vehicle] = findBestInsertion(pending[i], -1, vehicle, routes[vehicle],
+							loads[vehicle], 0.0);
 				}
-			}while(true);
-
-			// Inner loop ended
-			logger.fine("Inner loop ended after " + nIterInner + " iterations");
-			deliveryNode.unhook();
-
-			// Push the pickup back by one position
-			lastSwitchedOuter = pickupNode.pushBack();
-			// Notify to firstActions that pickupNode has been pushed back
-			if(currentSolution.firstActions.get(newVeh) == pickupNode && pickupNode.getPrevious() != null) {
-				currentSolution.firstActions.put(newVeh, pickupNode.getPrevious());
-			}
-			logger.fine("lastSwitchedOuter = " + lastSwitchedOuter + ", pickupNode.previous = " 
-					+ pickupNode.getPrevious() + ", pickupNode.next = " + pickupNode.getNext());
-			// If pickup was already at the end, break
-			if (lastSwitchedOuter == null) {
-				logger.fine("Outer loop: reached last position for pickup");
-				break;
 			}
-			// Otherwise, if we went past a pickup, increase gropponeOuter
-			if(lastSwitchedOuter.getElement().getType() == Type.PICKUP) {
-				gropponeOuter += lastSwitchedOuter.getElement().getTask().weight;
+		}
+
+		return;
+	}
+
+
+	/**
+	 * Assigns the pending tasks not inserted yet to the vehicles that can carry them, in turn, and puts each
+	 * one at the head of the route.
+	 * @param insertions: for each pending task, the vehicles that cannot carry it are null
+	 */
+	private void assignRoundRobin(int[] pending, boolean[] inserted, Mossa[][] insertions) {
+		boolean[] changed = new boolean[vehicles.size()];
+		int v = -1;
+		for(int i = 0; i < pending.length; i++) {
+			if(inserted[i]) {
+				continue;
 			}
-			// Otherwise, decrease gropponeOuter
-			else {
-				gropponeOuter -= lastSwitchedOuter.getElement().getTask().weight;
+			if(bestInsertion(insertions[i]) == null) {
+				throw new RuntimeException("No vehicle can carry task " + taskTable[pending[i]].id);
 			}
-		}while(true);
 
-		bestSolution.updateNTasks();
-		if(logger.isLoggable(Level.FINE)) {
-			logger.fine("FINE FINDBEST: nTotalTasks = " + bestSolution.getNumTasks());
-			logger.fine("FINE FINDBEST: isTaskStillPresent = " + bestSolution.isTaskPresent(task));
-			bestSolution.checkIntegrity();
+			// Find first vehicle (from where you left) that can carry the task
+			do {
+				v = (v + 1) % vehicles.size();
+			} while(insertions[i][v] == null);
+
+			routes[v] = insertActions(routes[v], pending[i], 0, 0);
+			deltaNTasks(v, +1);
+			changed[v] = true;
+			inserted[i] = true;
 		}
-		return bestSolution;
+
+		for(int vehicle = 0; vehicle < vehicles.size(); vehicle++) {
+			if(changed[vehicle]) {
+				routeChanged(vehicle);
+			}
+		}
+
+		return;
 	}
 
 
-	private boolean isTaskPresent(Task task) {
-		boolean found = false;
-		for(Vehicle vehicle : vehicles) {
-			if(firstActions.get(vehicle) == null) {
-				continue;
+	/**
+	 * @return the cheapest among the insertions of a task into each vehicle
+	 */
+	private static Mossa bestInsertion(Mossa[] insertions) {
+		Mossa bestMove = null;
+		for(Mossa move : insertions) {
+			if(move != null && (bestMove == null || move.getDeltaCost() < bestMove.getDeltaCost())) {
+				bestMove = move;
 			}
-			for(Node<Azione> node : firstActions.get(vehicle)) {
-				if(node.getElement().getTask() == task) {
-					found = true;
-					break;
-				}
-			}				
-		} 
-		return found;
+		}
+		return bestMove;
 	}
 
 
-	private void updateNTasks() {
-		for(Vehicle vehicle : vehicles) {
-			int numNodes = 0;
-			if(firstActions.get(vehicle) == null) {
-				numNodes = 0;
-			}else {
-				for(Node<Azione> node : firstActions.get(vehicle)) {
-					numNodes++;
-				}				
+	/**
+	 * @return the sum, over the k-1 vehicles with the next cheapest insertions of a task, of how much more
+	 * they cost than bestMove. If less than k vehicles can carry the task, the regret is infinite, so
+	 * that the task is inserted before its few options are taken
+	 */
+	private static double regretValue(Mossa[] insertions, Mossa bestMove, int k) {
+		double[] deltas = new double[insertions.length];
+		int nOptions = 0;
+		for(Mossa move : insertions) {
+			if(move != null) {
+				deltas[nOptions++] = move.getDeltaCost();
 			}
-			this.nTasks.put(vehicle, numNodes/2);
 		}
+		if(nOptions < k) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		Arrays.sort(deltas, 0, nOptions);
+		double regret = 0.0;
+		for(int j = 1; j < k; j++) {
+			regret += deltas[j] - bestMove.getDeltaCost();
+		}
+		return regret;
 	}
 
 
-	// return number of tasks in the system
-	private int getNumTasks() {
-		int numNodes = 0;
-		for(Vehicle vehicle : vehicles) {
-			if(firstActions.get(vehicle) == null) {
-				continue;
+	/**
+	 * Same as findBestMove(oldVeh, newVeh, task, false).
+	 * @return the move to the best assignment, or to the one that leaves task where it is if none is better
+	 */
+	private Mossa findBestMove(int oldVeh, int newVeh, int task) {
+		return findBestMove(oldVeh, newVeh, task, false);
+	}
+
+
+	/**
+	 * Takes out task from oldVeh, and tries to assign it in every possible way to newVeh.
+	 * Returns the best assignment. Unless mustMove, the one that leaves task where it is is returned if
+	 * none is better.
+	 * The cost of each assignment is computed in constant time, as a variation of the cost of the
+	 * solution without task, and the range of admissible delivery positions for each pickup position
+	 * is read from the load profile of newVeh. This solution is not modified.
+	 * @param oldVeh: the index of the old assignee of task
+	 * @param newVeh: the index of the new assignee of task
+	 * @param task: the index of the task to be relocated
+	 * @param mustMove: whether the assignment that leaves task where it is is excluded
+	 * @return the move to the best assignment
+	 */
+	private Mossa findBestMove(int oldVeh, int newVeh, int task, boolean mustMove) {
+		int oldPickupPos = pickupPositions[task];
+		int oldDeliveryPos = deliveryPositions[task];
+
+		// Unassign task from oldVeh
+		double removalDelta = deltaCostUnassign(oldVeh, oldPickupPos, oldDeliveryPos);
+		int[] route = routes[newVeh];
+		int[] load = loads[newVeh];
+		if(newVeh == oldVeh) {
+			route = removeActions(route, oldPickupPos, oldDeliveryPos);
+			load = loadProfile(route);
+		}
+
+		// Keep the best assignment only if it is better than leaving task where it is, unless it must move
+		Mossa bestMove = findBestInsertion(task, oldVeh, newVeh, route, load, removalDelta);
+		if(mustMove || bestMove.getDeltaCost() < 0.0) {
+			return bestMove;
+		}
+		return new Mossa(task, oldVeh, oldVeh, oldPickupPos, oldDeliveryPos - 1, 0.0);
+	}
+
+
+	/**
+	 * Tries to insert task in every possible way into route, the route of newVeh (possibly without task).
+	 * For each pickup position, the range of admissible delivery positions is read from the load profile,
+	 * and the cost of each assignment is computed in constant time. If atlante is granular, only the
+	 * candidate positions are tried, unless none of them is admissible. This solution is not modified.
+	 * @param oldVeh: the index of the vehicle task is taken out of, or -1 if it is not assigned
+	 * @param load: the load profile of route
+	 * @param baseDelta: the variation of the cost caused by taking task out of oldVeh
+	 * @return the move to the best assignment
+	 */
+	private Mossa findBestInsertion(int task, int oldVeh, int newVeh, int[] route, int[] load, double baseDelta) {
+		// Try the granular candidates first, and scan everything only if none of them is admissible
+		if(atlante.isGranular()) {
+			Mossa bestMove = findBestGranularInsertion(task, oldVeh, newVeh, route, load, baseDelta);
+			if(bestMove != null) {
+				return bestMove;
 			}
-			
-			for(Node<Azione> node : firstActions.get(vehicle)) {
-				numNodes++;
+		}
+
+		int maxLoad = capacity(newVeh) - taskTable[task].weight;
+		double bestDelta = Double.POSITIVE_INFINITY;
+		int bestPickupPos = -1;
+		int bestDeliveryPos = -1;
+
+		// Outer loop: place the pickup before route[pickupPos]
+		int overloadPos = 0;
+		long nEvaluated = 0;
+		for(int pickupPos = 0; pickupPos <= route.length; pickupPos++) {
+			// The delivery cannot be delayed past the first position where task does not fit
+			overloadPos = nextOverload(load, maxLoad, pickupPos, overloadPos);
+			nEvaluated += overloadPos - pickupPos;
+
+			// Inner loop: place the delivery before route[deliveryPos]
+			for(int deliveryPos = pickupPos; deliveryPos < overloadPos; deliveryPos++) {
+				// Remember this assignment if it is better than the best one
+				double candidateDelta = baseDelta + deltaCostAssign(newVeh, route, task, pickupPos, deliveryPos);
+				if(bestDelta > candidateDelta) {
+					bestDelta = candidateDelta;
+					bestPickupPos = pickupPos;
+					bestDeliveryPos = deliveryPos;
+				}
 			}
 		}
-		return numNodes/2;
+
+		Contatori.SLS.countMoves(nEvaluated);
+		return new Mossa(task, oldVeh, newVeh, bestPickupPos, bestDeliveryPos, bestDelta);
 	}
 
+
 	/**
-	 * Copies the current solution, then takes out task from oldVeh, and assigns it in a 
-	 * random admissible way to newVeh.
-	 * @param oldVeh: the old assignee of task
-	 * @param newVeh: the new assignee of task
-	 * @param task: the task to be relocated
-	 * @return the random assignment
+	 * Same as findBestInsertion, but only tries the positions next to an action in a city near the city of
+	 * the inserted action, according to atlante. The delivery right after the pickup is always tried.
+	 * @return the move to the best of these assignments, or null if none of them is admissible
 	 */
-	private Solution findRandomAssignment(Vehicle oldVeh, Vehicle newVeh, Task task) {
-		Solution currentSolution = new Solution(this);
-		Node<Azione> pickupNode = new Node<Azione>(new Azione(task, Type.PICKUP));
-		Node<Azione> deliveryNode = new Node<Azione>(new Azione(task, Type.DELIVERY));
-		
-		if(logger.isLoggable(Level.FINE)) {
-			logger.fine("INIZIO FINDBEST: nTotalTasks = " + currentSolution.getNumTasks());
-			currentSolution.checkIntegrity();
+	private Mossa findBestGranularInsertion(int task, int oldVeh, int newVeh, int[] route, int[] load,
+			double baseDelta) {
+		City pickupCity = taskTable[task].pickupCity;
+		City deliveryCity = taskTable[task].deliveryCity;
+		int maxLoad = capacity(newVeh) - taskTable[task].weight;
+		double bestDelta = Double.POSITIVE_INFINITY;
+		int bestPickupPos = -1;
+		int bestDeliveryPos = -1;
+
+		// The candidate positions of the delivery, in increasing order
+		int[] deliveryCandidates = new int[route.length + 1];
+		int nDeliveryCandidates = 0;
+		for(int pos = 0; pos <= route.length; pos++) {
+			if(isCandidate(newVeh, route, pos, deliveryCity)) {
+				deliveryCandidates[nDeliveryCandidates++] = pos;
+			}
 		}
-		
+
+		// Outer loop: place the pickup before route[pickupPos], if it is a candidate position
+		int overloadPos = 0;
+		int firstDelivery = 0;
+		long nEvaluated = 0;
+		for(int pickupPos = 0; pickupPos <= route.length; pickupPos++) {
+			if(!isCandidate(newVeh, route, pickupPos, pickupCity)) {
+				continue;
+			}
+			overloadPos = nextOverload(load, maxLoad, pickupPos, overloadPos);
+			if(overloadPos == pickupPos) {
+				continue;
+			}
+
+			// The delivery right after the pickup
+			nEvaluated++;
+			double candidateDelta = baseDelta + deltaCostAssign(newVeh, route, task, pickupPos, pickupPos);
+			if(bestDelta > candidateDelta) {
+				bestDelta = candidateDelta;
+				bestPickupPos = pickupPos;
+				bestDeliveryPos = pickupPos;
+			}
+
+			// Inner loop: place the delivery before route[deliveryPos], at the candidate positions
+			while(firstDelivery < nDeliveryCandidates && deliveryCandidates[firstDelivery] <= pickupPos) {
+				firstDelivery++;
+			}
+			for(int i = firstDelivery; i < nDeliveryCandidates && deliveryCandidates[i] < overloadPos; i++) {
+				int deliveryPos = deliveryCandidates[i];
+				nEvaluated++;
+				candidateDelta = baseDelta + deltaCostAssign(newVeh, route, task, pickupPos, deliveryPos);
+				if(bestDelta > candidateDelta) {
+					bestDelta = candidateDelta;
+					bestPickupPos = pickupPos;
+					bestDeliveryPos = deliveryPos;
+				}
+			}
+		}
+
+		Contatori.SLS.countMoves(nEvaluated);
+		if(bestPickupPos < 0) {
+			return null;
+		}
+		return new Mossa(task, oldVeh, newVeh, bestPickupPos, bestDeliveryPos, bestDelta);
+	}
+
+
+	/**
+	 * @return whether city is near the city right before or right at route[pos], the two cities between which
+	 * an action inserted before route[pos] takes place
+	 */
+	private boolean isCandidate(int vehicle, int[] route, int pos, City city) {
+		return atlante.isNear(city, cityBefore(vehicle, route, pos)) ||
+				(pos < route.length && atlante.isNear(city, cityAt(route, pos)));
+	}
+
+
+	/**
+	 * @return whether the task index points at the pickup and the delivery of task
+	 */
+	private boolean isTaskPresent(int task) {
+		int[] route = routes[taskVehicles[task]];
+		int pickupPos = pickupPositions[task];
+		int deliveryPos = deliveryPositions[task];
+
+		return pickupPos < deliveryPos && deliveryPos < route.length &&
+				route[pickupPos] == pickupCode(task) && route[deliveryPos] == deliveryCode(task);
+	}
+
+
+	/**
+	 * Takes out task from oldVeh, and assigns it in a random admissible way to newVeh.
+	 * This solution is not modified.
+	 * @param oldVeh: the index of the old assignee of task
+	 * @param newVeh: the index of the new assignee of task
+	 * @param task: the index of the task to be relocated
+	 * @return the move to the random assignment
+	 */
+	private Mossa findRandomMove(int oldVeh, int newVeh, int task) {
+		int maxLoad = capacity(newVeh) - taskTable[task].weight;
+		int oldPickupPos = pickupPositions[task];
+		int oldDeliveryPos = deliveryPositions[task];
+
 		// Unassign task from oldVeh
-		logger.fine("Unassigning task from oldVeh");
-		currentSolution.unassignTask(oldVeh, task);	// Until the end of the loop, currentSolution.nTasks is wrong
-		//currentSolution.deltaNTasks(oldVeh, -1);
-		//currentSolution.deltaNTasks(newVeh, +1);
+		double removalDelta = deltaCostUnassign(oldVeh, oldPickupPos, oldDeliveryPos);
+		int[] route = routes[newVeh];
+		int[] load = loads[newVeh];
+		if(newVeh == oldVeh) {
+			route = removeActions(route, oldPickupPos, oldDeliveryPos);
+			load = loadProfile(route);
+		}
 
-		int n = currentSolution.nTasks.get(newVeh);
+		int n = nTasks[newVeh];
 		// Upper bound on the number of possible positions of pickup and delivery
-		int counter = coin.nextInt((2*n+1) * (n+1));  
+		int counter = coin.nextInt((2*n+1) * (n+1));
 
-		// Outer do-while: place pickupNode
+		// Place the pickup before route[pickupPos]: all the admissible deliveries are counted at once
 		logger.fine("Begining outer loop");
-		pickupNode.unhook();
-		pickupNode.insertBefore(currentSolution.firstActions.get(newVeh));
-		currentSolution.firstActions.put(newVeh, pickupNode);
-		// Variables for outer loop
-		Node<Azione> lastSwitchedOuter;
-		int gropponeOuter = 0;
-		int nIterOuter = 0;
-		do{
-			// Inner do-while: place deliveryNode
-			logger.fine("Outer iteration " + nIterOuter++ + ".Beginning inner loop.");
-			deliveryNode.unhook();
-			deliveryNode.insertAfter(pickupNode);
-			// Variables for inner loop
-			Node<Azione> lastSwitchedInner;
-			int gropponeInner = gropponeOuter + task.weight;
-			int nIterInner = 0;
-			do {
-				logger.fine("Inner iteration " + nIterInner++);
+		int overloadPos = 0;
+		for(int pickupPos = 0; pickupPos <= route.length; pickupPos++) {
+			overloadPos = nextOverload(load, maxLoad, pickupPos, overloadPos);
+
+			// Place the delivery before route[deliveryPos], if it is the counter-th admissible assignment
+			if(counter > 0 && counter <= overloadPos - pickupPos) {
+				int deliveryPos = pickupPos + counter - 1;
+				Contatori.SLS.countMoves(1);
+				return new Mossa(task, oldVeh, newVeh, pickupPos, deliveryPos,
+						removalDelta + deltaCostAssign(newVeh, route, task, pickupPos, deliveryPos));
+			}
+			counter -= overloadPos - pickupPos;
+		}
 
-				// Break right away if capacity exceeded: cannot delay delivery further
-				if(gropponeInner > newVeh.capacity()) {
-					logger.fine("Inner loop: capacity exceeded. Breaking");
-					break;
-				}
+		// If we haven't yet found anything, append the task at the end of the route
+		return new Mossa(task, oldVeh, newVeh, route.length, route.length,
+				removalDelta + deltaCostAssign(newVeh, route, task, route.length, route.length));
+	}
 
-				counter--;
-				if(counter == 0) {
-					currentSolution.updateNTasks();
-					if(logger.isLoggable(Level.FINE)) {
-						logger.fine("FINE FINDBEST: nTotalTasks = " + currentSolution.getNumTasks());
-						logger.fine("FINE FINDBEST: isTaskStillPresent = " + 
-								currentSolution.isTaskPresent(task));
-						currentSolution.checkIntegrity();
-					}
-				
-					return currentSolution;
-				}
 
-				// Push the delivery back by one position
-				lastSwitchedInner = deliveryNode.pushBack();
-				logger.fine("lastSwitchedInner = " + lastSwitchedInner + ", deliveryNode.previous = " 
-						+ deliveryNode.getPrevious() + ", deliveryNode.next = " + deliveryNode.getNext());
-				// If delivery was already at the end, break
-				if (lastSwitchedInner == null) {
-					logger.fine("Inner loop: reached last position for delivery");
-					break;
-				}
-				// Otherwise, if we went past a pickup, increase gropponeInner
-				if(lastSwitchedInner.getElement().getType() == Type.PICKUP) {
-					gropponeInner += lastSwitchedInner.getElement().getTask().weight;
-				}
-				// Otherwise, decrease gropponeInner
-				else {
-					gropponeInner -= lastSwitchedInner.getElement().getTask().weight;
-				}
-			}while(true);
-
-			// Inner loop ended
-			logger.fine("Inner loop ended after " + nIterInner + " iterations");
-			deliveryNode.unhook();
-
-			// Push the pickup back by one position
-			lastSwitchedOuter = pickupNode.pushBack();
-			// Notify to firstActions that pickupNode has been pushed back
-			if(currentSolution.firstActions.get(newVeh) == pickupNode && pickupNode.getPrevious() != null) {
-				currentSolution.firstActions.put(newVeh, pickupNode.getPrevious());
-			}
-			logger.fine("lastSwitchedOuter = " + lastSwitchedOuter + ", pickupNode.previous = " 
-					+ pickupNode.getPrevious() + ", pickupNode.next = " + pickupNode.getNext());
-			// If pickup was already at the end, break
-			if (lastSwitchedOuter == null) {
-				logger.fine("Outer loop: reached last position for pickup");
-				break;
-			}
-			// Otherwise, if we went past a pickup, increase gropponeOuter
-			if(lastSwitchedOuter.getElement().getType() == Type.PICKUP) {
-				gropponeOuter += lastSwitchedOuter.getElement().getTask().weight;
+	private void deltaNTasks(int vehicle, int delta) {
+		nTasks[vehicle] += delta;
+		urna.add(capacityRanks[vehicle], delta);
+		return;
+	}
+
+
+	/**
+	 * Initialises everything that derives from the routes: their profiles, the task index, the sampling
+	 * structures and the cost.
+	 */
+	private void initRoutes() {
+		// Compute the load and distance profiles of each route, and the positions of its tasks
+		for(int v = 0; v < vehicles.size(); v++) {
+			updateProfiles(v);
+			updateIndex(v);
+		}
+
+		// Sort the vehicles by capacity, and put their tasks in the urn
+		this.initSampling();
+
+		// Compute the cost of this solution
+		this.initCost();
+
+		return;
+	}
+
+
+	/**
+	 * Sorts the vehicles by decreasing capacity, counts the vehicles that can carry each task, and fills
+	 * the urn with the number of tasks of each vehicle.
+	 */
+	private void initSampling() {
+		Integer[] order = new Integer[vehicles.size()];
+		for(int v = 0; v < order.length; v++) {
+			order[v] = v;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer v1, Integer v2) {
+				return Integer.compare(capacity(v2), capacity(v1));
 			}
-			// Otherwise, decrease gropponeOuter
-			else {
-				gropponeOuter -= lastSwitchedOuter.getElement().getTask().weight;
+		});
+
+		byCapacity = new int[order.length];
+		capacityRanks = new int[order.length];
+		urna = new Urna(order.length);
+		for(int rank = 0; rank < order.length; rank++) {
+			byCapacity[rank] = order[rank];
+			capacityRanks[order[rank]] = rank;
+			urna.add(rank, nTasks[order[rank]]);
+		}
+
+		// The vehicles that can carry a task are a prefix of byCapacity
+		nEligible = new int[taskTable.length];
+		for(int task = 0; task < taskTable.length; task++) {
+			int eligible = 0;
+			while(eligible < byCapacity.length && capacity(byCapacity[eligible]) >= taskTable[task].weight) {
+				eligible++;
 			}
-		}while(true);
-		
-		// If we haven't yet found anything, just return
-		deliveryNode.insertAfter(pickupNode);
-		currentSolution.updateNTasks();
-		if(logger.isLoggable(Level.FINE)) {
-			logger.fine("FINE FINDBEST: nTotalTasks = " + currentSolution.getNumTasks());
-			logger.fine("FINE FINDBEST: isTaskStillPresent = " + 
-					currentSolution.isTaskPresent(task));
-			currentSolution.checkIntegrity();
+			nEligible[task] = eligible;
 		}
-	
-		return currentSolution;
 
+		return;
 	}
 
 
-	private void unassignTask(Vehicle vehicle, Task task) {
-		Node<Azione> pickupNode = null;
-		Node<Azione> deliveryNode = null;
-		Node<Azione> headNode = this.firstActions.get(vehicle);
+	/**
+	 * Computes the variation of the cost when removing route[pickupPos] and route[deliveryPos] from
+	 * the route of vehicle.
+	 * @return the variation of the cost of the solution
+	 */
+	private double deltaCostUnassign(int vehicle, int pickupPos, int deliveryPos) {
+		int[] route = this.routes[vehicle];
+		int costPerKm = costPerKm(vehicle);
+
+		// Unhook the delivery first, then the pickup from the route without the delivery
+		City afterDelivery = cityAt(route, deliveryPos + 1);
+		double delta = deltaCostUnhook(costPerKm, cityBefore(vehicle, route, deliveryPos),
+				getCity(route[deliveryPos]), afterDelivery);
+		City afterPickup = (pickupPos + 1 == deliveryPos) ? afterDelivery : cityAt(route, pickupPos + 1);
+		delta += deltaCostUnhook(costPerKm, cityBefore(vehicle, route, pickupPos),
+				getCity(route[pickupPos]), afterPickup);
+
+		return delta;
+	}
+
 
-		// Find the pickup and the delivery nodes associated to task
-		logger.fine("Finding pickupNode and deliveryNode");
-		for(Node<Azione> node : headNode) {
-			if(node.getElement().getTask() != task) {
-				continue;
-			}
-			if(node.getElement().getType() == Type.PICKUP) {
-				pickupNode = node;
-			} else {
-				deliveryNode = node;
-				break;
-			}
+	/**
+	 * Computes the variation of the cost when inserting the pickup of task before route[pickupPos]
+	 * and its delivery before route[deliveryPos], like insertActions does.
+	 * @param vehicle: the index of the vehicle whose route is route
+	 * @return the variation of the cost of the solution
+	 */
+	private double deltaCostAssign(int vehicle, int[] route, int task, int pickupPos, int deliveryPos) {
+		int costPerKm = costPerKm(vehicle);
+		City pickupCity = taskTable[task].pickupCity;
+		City deliveryCity = taskTable[task].deliveryCity;
+		City beforePickup = cityBefore(vehicle, route, pickupPos);
+		City afterPickup = cityAt(route, pickupPos);
+
+		// A -> C becomes A -> P -> D -> C
+		if(pickupPos == deliveryPos) {
+			return deltaCostInsert(costPerKm, beforePickup, deliveryCity, afterPickup) +
+					deltaCostInsert(costPerKm, beforePickup, pickupCity, deliveryCity);
 		}
-		
-		// Assert both non null
-		if(pickupNode == null) {
-			throw new RuntimeException("pickupNode = null! deliveryNode = " + deliveryNode);
+
+		// A -> B ... Y -> Z becomes A -> P -> B ... Y -> D -> Z
+		return deltaCostInsert(costPerKm, beforePickup, pickupCity, afterPickup) +
+				deltaCostInsert(costPerKm, cityBefore(vehicle, route, deliveryPos), deliveryCity,
+						cityAt(route, deliveryPos));
+	}
+
+
+	/**
+	 * Builds a new route from route, without the actions at pickupPos and deliveryPos.
+	 * @param route: the route the actions are removed from. It is not modified
+	 * @param pickupPos: the position of the first action to remove
+	 * @param deliveryPos: the position of the second action to remove, greater than pickupPos
+	 * @return the new route
+	 */
+	private static int[] removeActions(int[] route, int pickupPos, int deliveryPos) {
+		int[] newRoute = new int[route.length - 2];
+
+		System.arraycopy(route, 0, newRoute, 0, pickupPos);
+		System.arraycopy(route, pickupPos + 1, newRoute, pickupPos, deliveryPos - pickupPos - 1);
+		System.arraycopy(route, deliveryPos + 1, newRoute, deliveryPos - 1, route.length - deliveryPos - 1);
+
+		return newRoute;
+	}
+
+
+	/**
+	 * Builds a new route from route, inserting the pickup of task before route[pickupPos] and the
+	 * delivery before route[deliveryPos]. When the two positions coincide, the delivery directly
+	 * follows the pickup.
+	 * @param route: the route the task is inserted into. It is not modified
+	 * @param task: the index of the task to insert
+	 * @param pickupPos: the position of the pickup, between 0 and route.length
+	 * @param deliveryPos: the position of the delivery, between pickupPos and route.length
+	 * @return the new route
+	 */
+	private static int[] insertActions(int[] route, int task, int pickupPos, int deliveryPos) {
+		int[] newRoute = new int[route.length + 2];
+
+		System.arraycopy(route, 0, newRoute, 0, pickupPos);
+		newRoute[pickupPos] = pickupCode(task);
+		System.arraycopy(route, pickupPos, newRoute, pickupPos + 1, deliveryPos - pickupPos);
+		newRoute[deliveryPos + 1] = deliveryCode(task);
+		System.arraycopy(route, deliveryPos, newRoute, deliveryPos + 2, route.length - deliveryPos);
+
+		return newRoute;
+	}
+
+
+	/**
+	 * Finds the first position, not before pos, before which the load exceeds maxLoad. Since the result
+	 * never decreases with pos, scanning from the previous result keeps a whole sweep of the route linear.
+	 * @param load: the load profile of a route
+	 * @param maxLoad: the maximum admissible load
+	 * @param pos: the position to start from
+	 * @param lastOverload: the result of the previous call, with a smaller pos
+	 * @return the first overloaded position, or load.length if there is none
+	 */
+	private static int nextOverload(int[] load, int maxLoad, int pos, int lastOverload) {
+		int overloadPos = Math.max(pos, lastOverload);
+		while(overloadPos < load.length && load[overloadPos] <= maxLoad) {
+			overloadPos++;
 		}
-		if(deliveryNode == null) {
-			throw new RuntimeException("deliveryNode = null! pickupNode = " + pickupNode);
+		return overloadPos;
+	}
+
+
+	/**
+	 * @return the load carried right before each position of route, and at its end
+	 */
+	private int[] loadProfile(int[] route) {
+		int[] load = new int[route.length + 1];
+
+		// The vehicle starts empty, and is empty again at the end of the route
+		for(int i = 0; i < route.length; i++) {
+			load[i+1] = load[i] + deltaLoad(route[i]);
 		}
-		
-		// Update firstActions
-		if(headNode == pickupNode) {
-			Node<Azione> restoredHead = pickupNode.getNext();
-			if(restoredHead == deliveryNode) {
-				restoredHead = restoredHead.getNext();
-			}
-			
-			this.firstActions.put(vehicle, restoredHead);
+
+		return load;
+	}
+
+
+	/**
+	 * Recomputes the load and distance profiles of vehicle, after its route changed.
+	 */
+	private void updateProfiles(int vehicle) {
+		int[] route = routes[vehicle];
+		double[] odometer = new double[route.length + 1];
+		City currentCity = startCities[vehicle];
+
+		for(int i = 0; i < route.length; i++) {
+			City nextCity = getCity(route[i]);
+			odometer[i+1] = odometer[i] + atlante.distance(currentCity, nextCity);
+			currentCity = nextCity;
 		}
 
-		// Unhook them
-		logger.fine("Unhooking pickupNode and deliveryNode");
-		pickupNode.unhook();
-		deliveryNode.unhook();
+		loads[vehicle] = loadProfile(route);
+		odometers[vehicle] = odometer;
 
 		return;
 	}
 
 
-	private void deltaNTasks(Vehicle vehicle, int delta) {
-		int numTasks = this.nTasks.get(vehicle);
-		this.nTasks.put(vehicle, numTasks+delta);
+	/**
+	 * Records vehicle and the positions in its route as the ones of the tasks it carries, after its route changed.
+	 */
+	private void updateIndex(int vehicle) {
+		int[] route = routes[vehicle];
+
+		for(int i = 0; i < route.length; i++) {
+			int task = taskIndex(route[i]);
+			if(isPickup(route[i])) {
+				taskVehicles[task] = vehicle;
+				pickupPositions[task] = i;
+			} else {
+				deliveryPositions[task] = i;
+			}
+		}
+
 		return;
 	}
 
 
+	/* ACTION ENCODING */
+
+
+	private static int pickupCode(int task) {
+		return 2*task;
+	}
+
+
+	private static int deliveryCode(int task) {
+		return 2*task + 1;
+	}
+
+
+	private static int taskIndex(int action) {
+		return action >> 1;
+	}
+
+
+	private static boolean isPickup(int action) {
+		return (action & 1) == 0;
+	}
+
+
+	/**
+	 * @return the city where the encoded action takes place
+	 */
+	private City getCity(int action) {
+		Task task = taskTable[taskIndex(action)];
+		if(isPickup(action)) {
+			return task.pickupCity;
+		}
+		return task.deliveryCity;
+	}
+
+
+	/**
+	 * @return the city where route[pos] takes place, or null if pos is past the end of route
+	 */
+	private City cityAt(int[] route, int pos) {
+		if(pos >= route.length) {
+			return null;
+		}
+		return getCity(route[pos]);
+	}
+
+
+	/**
+	 * @return the city where vehicle is right before performing route[pos]
+	 */
+	private City cityBefore(int vehicle, int[] route, int pos) {
+		if(pos == 0) {
+			return startCities[vehicle];
+		}
+		return getCity(route[pos - 1]);
+	}
+
+
+	/**
+	 * @return the Action corresponding to the encoded action
+	 */
+	private Action getAction(int action) {
+		Task task = taskTable[taskIndex(action)];
+		if(isPickup(action)) {
+			return new Action.Pickup(task);
+		}
+		return new Action.Delivery(task);
+	}
+
+
+	/**
+	 * @return the variation of the carried weight after performing the encoded action
+	 */
+	private int deltaLoad(int action) {
+		int weight = taskTable[taskIndex(action)].weight;
+		if(isPickup(action)) {
+			return weight;
+		}
+		return -weight;
+	}
+
+
+	private int capacity(int vehicle) {
+		return capacities[vehicle];
+	}
+
+
+	private int costPerKm(int vehicle) {
+		return costsPerKm[vehicle];
+	}
+
+
 	/* GETTERS AND SETTERS */
 
 
 	/**
+	 * Only the routes that changed since the last call are walked again: for a clean solution, this is O(1).
 	 * @return the cost of this solution.
 	 */
 	double getCost() {
-		initCost();
+		if(dirty) {
+			updateCost();
+		}
 		return cost;
 	}
 
 
 	/**
-	 * Calculates from scratch the cost of this solution, and sets the corresponding field.
+	 * Calculates from scratch the cost of this solution, and sets the corresponding fields.
 	 */
 	private void initCost() {
-		this.cost = 0;
+		for(int v = 0; v < vehicles.size(); v++) {
+			markDirty(v);
+		}
+		updateCost();
 
-		// Compute the cost of each vehicle's journey
-		for(Vehicle vehicle : vehicles) {
-			City currentCity = vehicle.getCurrentCity();
-			Node<Azione> firstAction = firstActions.get(vehicle);
+		return;
+	}
 
-			// If no tasks assigned to this vehicle, continue
-			if(firstAction == null) {
-				continue;
-			}
 
-			// nextNode is always one step ahead of currentCity
-			for(Node<Azione> nextNode : firstAction) {
-				City nextCity = nextNode.getElement().getCity();
-				this.cost += vehicle.costPerKm() * currentCity.distanceTo(nextCity);
-				currentCity = nextCity;
+	/**
+	 * Recomputes the cost of the dirty vehicles, and the cost of this solution.
+	 * The field is written once, so that concurrent readers of a shared solution never see a partial sum.
+	 */
+	private void updateCost() {
+		long startNanos = Contatori.now();
+		double cost = 0;
+
+		for(int v = 0; v < vehicles.size(); v++) {
+			if(dirtyCosts[v]) {
+				vehicleCosts[v] = routeCost(v);
+				dirtyCosts[v] = false;
 			}
+			cost += vehicleCosts[v];
 		}
 
+		this.cost = cost;
+		this.dirty = false;
+
+		Contatori.SLS.addCostTime(startNanos);
 		return;
 	}
 
 
+	/**
+	 * @return the cost of the journey of vehicle, read from the end of its distance profile
+	 */
+	private double routeCost(int vehicle) {
+		double[] odometer = odometers[vehicle];
+		return costPerKm(vehicle) * odometer[odometer.length - 1];
+	}
+
+
+	/**
+	 * Updates the profiles and the task index of vehicle, and marks it dirty, after its route changed.
+	 */
+	private void routeChanged(int vehicle) {
+		updateProfiles(vehicle);
+		updateIndex(vehicle);
+		markDirty(vehicle);
+	}
+
+
+	/**
+	 * Signals that the route of vehicle changed, so that its cost is computed again when needed.
+	 */
+	private void markDirty(int vehicle) {
+		dirtyCosts[vehicle] = true;
+		dirty = true;
+	}
+
+
 	public void checkIntegrity() {
 		// Sum of the nTasks: must be totalTasks
 		int cumul = 0;
 
 		// Check every vehicle's integrity
-		for(Vehicle vehicle : vehicles) {
-			int numTasks = nTasks.get(vehicle);
-			Node<Azione> headNode = firstActions.get(vehicle);
+		for(int v = 0; v < vehicles.size(); v++) {
+			Vehicle vehicle = vehicles.get(v);
+			int numTasks = nTasks[v];
 			int nPickup = 0;
 			int nDelivery = 0;
 
-			// Check numTask = 0 => headNode = null
-			if(numTasks == 0) {
-				if(headNode != null) {
-					throw new RuntimeException("Integrity error: for vehicle = " + vehicle + ", numTasks = 0" + 
-							" but headNode = " + headNode);
-				}
-				continue;
-			}
-			// Check headNode = null => numTasks = 0
-			if(headNode == null) {
-				throw new RuntimeException("Integrity error: for vehicle = " + vehicle + ", headNode = null but"
-						+ " numTasks = " + numTasks);
-			}
-			// Check headNode.previous == null
-			if(headNode.getPrevious() != null) {
-				throw new RuntimeException("Integrity error: for vehicle = " + vehicle + ", headNode = " +
-						headNode + ", headNode.previous = " + headNode.getPrevious());
-			}
-
-			for(Node<Azione> node : firstActions.get(vehicle)) {
-				if(node.getElement().getType() == Type.PICKUP) {
+			for(int action : routes[v]) {
+				if(isPickup(action)) {
 					nPickup++;
 				} else {
 					nDelivery++;
@@ -745,16 +1553,16 @@ class Solution {
 
 			// Check nPickup == nDelivery
 			if(nPickup != nDelivery) {
-				throw new RuntimeException("Integrity error: nPickup != nDelivery. nPickup = " + nPickup + 
+				throw new RuntimeException("Integrity error: nPickup != nDelivery. nPickup = " + nPickup +
 						", nDelivery = " + nDelivery + ", numTasks = " + numTasks + ", vehicle = " + vehicle);
 			}
 			// Check nPickup == nDelivery == numTasks
 			if(nPickup != numTasks) {
-				throw new RuntimeException("Integrity error: nDelivery == nPickup != numTasks. nPickup = " + 
+				throw new RuntimeException("Integrity error: nDelivery == nPickup != numTasks. nPickup = " +
 						nPickup + ", numTasks = " + numTasks + ", vehicle = " + vehicle);
 			}
 
-			cumul += numTasks;			
+			cumul += numTasks;
 		}
 
 		// Check cumul == totalTasks
@@ -762,6 +1570,15 @@ class Solution {
 			throw new RuntimeException("Integrity error: cumul != totalTasks. cumul = " + cumul +
 					", totalTasks = " + totalTasks);
 		}
+
+		// Check that the index points at each task
+		for(int task = 0; task < totalTasks; task++) {
+			if(!isTaskPresent(task)) {
+				throw new RuntimeException("Integrity error: task " + task + " not found at vehicle = " +
+						taskVehicles[task] + ", pickupPos = " + pickupPositions[task] + ", deliveryPos = " +
+						deliveryPositions[task]);
+			}
+		}
 	}
 
 
@@ -772,18 +1589,19 @@ class Solution {
 	 * @param a: the first city in both sequences
 	 * @param b: the city to be removed
 	 * @param c: the city to be pulled ahead. Can be null.
+	 * @return the variation of the cost
 	 */
-	private void deltaCostUnhook(int costPerKm, City a, City b, City c) {
+	private double deltaCostUnhook(int costPerKm, City a, City b, City c) {
 		double delta = 0;
 
 		// If C is null, then we are just removing B from the end of the sequence
 		if(c != null) {
-			delta -= b.distanceTo(c);
-			delta += a.distanceTo(c);
+			delta -= atlante.distance(b, c);
+			delta += atlante.distance(a, c);
 		}
-		delta -= a.distanceTo(b);
+		delta -= atlante.distance(a, b);
 
-		this.cost += delta * costPerKm;
+		return delta * costPerKm;
 	}
 
 
@@ -794,18 +1612,19 @@ class Solution {
 	 * @param a: the first city in both sequences
 	 * @param b: the city to be inserted in the middle
 	 * @param c: the city to be pushed back. Can be null.
+	 * @return the variation of the cost
 	 */
-	private void deltaCostInsert(int costPerKm, City a, City b, City c) {
+	private double deltaCostInsert(int costPerKm, City a, City b, City c) {
 		double delta = 0;
 
 		// If C is null, then we are just appending B at the end of the sequence
 		if(c != null) {
-			delta -= a.distanceTo(c);
-			delta += b.distanceTo(c);
+			delta -= atlante.distance(a, c);
+			delta += atlante.distance(b, c);
 		}
-		delta += a.distanceTo(b);
+		delta += atlante.distance(a, b);
 
-		this.cost += delta * costPerKm;
+		return delta * costPerKm;
 	}
 
 
@@ -817,21 +1636,22 @@ class Solution {
 	 * @param b: the city to be pushed back
 	 * @param c: the city to be pulled ahead
 	 * @param d: the last city in both sequences. Can be null
+	 * @return the variation of the cost
 	 */
-	private void deltaCostSwap(int costPerKm, City a, City b, City c, City d) {
+	private double deltaCostSwap(int costPerKm, City a, City b, City c, City d) {
 		double delta = 0;
 
 		// If D is null, then we are just swapping the last two cities in the sequence
 		if(d != null) {
-			delta -= c.distanceTo(d);
-			delta += b.distanceTo(d);
+			delta -= atlante.distance(c, d);
+			delta += atlante.distance(b, d);
 		}
-		delta -= a.distanceTo(b);
-		delta -= b.distanceTo(c);
-		delta += a.distanceTo(c);
-		delta += c.distanceTo(b);
+		delta -= atlante.distance(a, b);
+		delta -= atlante.distance(b, c);
+		delta += atlante.distance(a, c);
+		delta += atlante.distance(c, b);
 
-		this.cost += delta * costPerKm;
+		return delta * costPerKm;
 	}
 
 }
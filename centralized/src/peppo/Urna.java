@@ -0,0 +1,73 @@
+package peppo;
+
+/**
+ * A Fenwick tree over non-negative integer weights, one per item, used to sample items with probability
+ * proportional to their weight. Updates, prefix sums and sampling all take O(log n).
+ */
+class Urna {
+	// tree[i] holds the sum of the weights of items i-lowbit(i) to i-1, where lowbit(i) = i & -i
+	private final int[] tree;
+
+
+
+	/**
+	 * Constructs an urn with size items, all with weight 0.
+	 */
+	Urna(int size) {
+		this.tree = new int[size + 1];
+	}
+
+
+	/**
+	 * Deep copy.
+	 */
+	Urna(Urna other) {
+		this.tree = other.tree.clone();
+	}
+
+
+	/**
+	 * Adds delta to the weight of item.
+	 */
+	void add(int item, int delta) {
+		for(int i = item + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+
+	/**
+	 * @return the sum of the weights of the first n items
+	 */
+	int prefixSum(int n) {
+		int sum = 0;
+		for(int i = n; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+
+	int weight(int item) {
+		return prefixSum(item + 1) - prefixSum(item);
+	}
+
+
+	/**
+	 * Descends the tree, skipping whole blocks whose weights sum to at most what is left of r.
+	 * @param r: a number between 0 and the total weight (excluded)
+	 * @return the item such that prefixSum(item) <= r < prefixSum(item+1)
+	 */
+	int find(int r) {
+		int pos = 0;
+		for(int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+			int next = pos + step;
+			if(next < tree.length && tree[next] <= r) {
+				pos = next;
+				r -= tree[next];
+			}
+		}
+		return pos;
+	}
+
+}
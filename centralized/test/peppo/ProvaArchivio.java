@@ -0,0 +1,130 @@
+package peppo;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import logist.config.ParserException;
+import logist.config.Parsers;
+import logist.simulation.Vehicle;
+import logist.simulation.VehicleImpl;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * A test of the warm starts from Archivio: it plans twice for the same seeded synthetic instance, with the
+ * cache on, and checks that the second run starts its search at or below the cost stored by the first one,
+ * and that the cache directory holds nothing but the stored solution.
+ * It lives outside src/, so that it is never shipped with the agent. From the centralized directory:
+ * <pre>
+ * javac -cp ../logist/logist.jar -sourcepath src:test -d test-bin test/peppo/ProvaArchivio.java
+ * java -cp test-bin:../logist/logist.jar peppo.ProvaArchivio
+ * </pre>
+ * It exits with status 1 if a check fails.
+ */
+public class ProvaArchivio {
+	private static final long SEED = 42;
+	private static final int NTASKS = 100;
+	private static final int NVEHICLES = 4;
+	private static final int CAPACITY = 30;
+	private static final int COSTPERKM = 5;
+	private static final int MAXWEIGHT = 10;
+	private static final long TIMEOUT = 1000;
+
+
+
+	public static void main(String[] args) throws ParserException, IOException {
+		Topology topology = Parsers.parseTopology("config/topology/england.xml");
+		Atlante atlante = new Atlante(topology);
+		TaskSet tasks = makeTasks(topology);
+		List<Vehicle> vehicles = makeVehicles(topology, tasks);
+		// The defaults randomise the initial solution of each chain
+		Impostazioni impostazioni = new Impostazioni();
+		File directory = Files.createTempDirectory("archivio").toFile();
+		Archivio archivio = new Archivio(directory, atlante);
+
+		try {
+			Planner first = new Planner(vehicles, tasks, atlante, impostazioni, TIMEOUT);
+			first.setArchivio(archivio);
+			first.plan();
+			double storedCost = first.getBestCost();
+
+			Planner second = new Planner(vehicles, tasks, atlante, impostazioni, TIMEOUT);
+			second.setArchivio(archivio);
+			second.plan();
+
+			check(second.getStartCost() <= storedCost, "the second run starts from " + second.getStartCost() +
+					", above the stored cost " + storedCost);
+			check(second.getBestCost() <= storedCost, "the second run ends at " + second.getBestCost() +
+					", above the stored cost " + storedCost);
+			String[] files = directory.list();
+			check(files.length == 1 && files[0].endsWith(".bin"), "the cache directory holds " + files.length +
+					" files");
+			System.out.println("OK: stored cost = " + storedCost + ", second start cost = " +
+					second.getStartCost() + ", second best cost = " + second.getBestCost());
+		} finally {
+			for(File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+
+		return;
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if(!condition) {
+			System.err.println("FAILED: " + message);
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * @return NVEHICLES vehicles with the same capacity and cost per km, based in random cities
+	 */
+	private static List<Vehicle> makeVehicles(Topology topology, TaskSet tasks) {
+		Random coin = new Random(SEED);
+		List<City> cities = topology.cities();
+		List<Vehicle> vehicles = new ArrayList<Vehicle>(NVEHICLES);
+
+		for(int id = 0; id < NVEHICLES; id++) {
+			VehicleImpl vehicle = new VehicleImpl(id, "Furgone " + id, CAPACITY, COSTPERKM,
+					cities.get(coin.nextInt(cities.size())), 100, Color.BLUE);
+			// Places the vehicle in its home city
+			vehicle.beginRound(tasks);
+			vehicles.add(vehicle.getInfo());
+		}
+
+		return vehicles;
+	}
+
+
+	/**
+	 * @return NTASKS tasks between random distinct cities, with random weights up to MAXWEIGHT
+	 */
+	private static TaskSet makeTasks(Topology topology) {
+		Random coin = new Random(SEED + 1);
+		List<City> cities = topology.cities();
+		Task[] tasks = new Task[NTASKS];
+
+		for(int id = 0; id < NTASKS; id++) {
+			City pickupCity = cities.get(coin.nextInt(cities.size()));
+			City deliveryCity;
+			do {
+				deliveryCity = cities.get(coin.nextInt(cities.size()));
+			} while(deliveryCity == pickupCity);
+			tasks[id] = new Task(id, pickupCity, deliveryCity, 0, 1 + coin.nextInt(MAXWEIGHT));
+		}
+
+		return TaskSet.create(tasks);
+	}
+
+}
@@ -34,6 +34,8 @@ public class MyDeliberative implements DeliberativeBehavior {
 	// User-supplied parameter dictating the search algorithm to employ
 	private Algorithm algorithm;
 	private Vehicle vehicle;
+	// The distances and paths between cities, built once
+	private Atlante atlante;
 	private Logger logger;
 
 
@@ -54,6 +56,7 @@ public class MyDeliberative implements DeliberativeBehavior {
 
 		// Only one vehicle per agent
 		this.vehicle = agent.vehicles().get(0);
+		this.atlante = new Atlante(topology);
 	}
 
 
@@ -61,7 +64,7 @@ public class MyDeliberative implements DeliberativeBehavior {
 	@Override
 	public Plan plan(Vehicle vehicle, TaskSet tasks) {
 		Plan plan;
-		State initialState = new State(tasks, vehicle, algorithm);	// Short constructor for initial state
+		State initialState = new State(tasks, vehicle, algorithm, atlante);	// Short constructor for initial state
 
 		// Compute the plan with the selected algorithm.
 		switch (algorithm) {
@@ -40,6 +40,7 @@ class State {
 	private double heuristic;	// The (under)estimated cost to any goal state
 	private Vehicle vehicle;
 	private Algorithm algo;		// Dictates the heuristic
+	private Atlante atlante;	// The distances and paths between cities, shared among States
 
 
 
@@ -47,8 +48,8 @@ class State {
 	 * Reduced constructor, called to instantiate the initial state, for which 
 	 * some parameters can be derived from the vehicle.
 	 */
-	public State(TaskSet pettera, Vehicle vehicle, Algorithm algo) {
-		this(vehicle.getCurrentCity(), vehicle.getCurrentTasks(), pettera, null, vehicle, 0.0, 0, algo);
+	public State(TaskSet pettera, Vehicle vehicle, Algorithm algo, Atlante atlante) {
+		this(vehicle.getCurrentCity(), vehicle.getCurrentTasks(), pettera, null, vehicle, 0.0, 0, algo, atlante);
 	}
 
 
@@ -56,7 +57,7 @@ class State {
 	 * Full constructor.
 	 */
 	public State(City currentCity, TaskSet groppone, TaskSet pettera, Arc father, 
-			Vehicle vehicle, double costSoFar, int depth, Algorithm algo) {
+			Vehicle vehicle, double costSoFar, int depth, Algorithm algo, Atlante atlante) {
 		super();
 		this.currentCity = currentCity;
 		this.groppone = groppone;
@@ -66,6 +67,7 @@ class State {
 		this.fatherArc = father;
 		this.depth = depth;
 		this.algo = algo;
+		this.atlante = atlante;
 
 		initHeuristic();
 	}
@@ -127,7 +129,7 @@ class State {
 
 			// A Delivery does not incur costs, so costSoFar is the same for the new State
 			State end = new State(currentCity, TaskSet.copyOf(groppone), TaskSet.copyOf(pettera), 
-					arc, vehicle, costSoFar, this.depth+1, algo);
+					arc, vehicle, costSoFar, this.depth+1, algo, atlante);
 			
 			// Modify the new State, so that "task" figures as delivered
 			end.deliveryTask(toBeDelivered);
@@ -151,7 +153,7 @@ class State {
 
 				// A Pickup does not incur costs, so costSoFar is the same for the new State
 				State end = new State(currentCity, TaskSet.copyOf(groppone), TaskSet.copyOf(pettera), 
-						arc, vehicle, costSoFar, this.depth+1, algo);
+						arc, vehicle, costSoFar, this.depth+1, algo, atlante);
 				
 				// Modify the new State, so that "task" figures as picked up
 				end.pickupTask(task);
@@ -172,14 +174,14 @@ class State {
 			Arc arc = new Arc(this);
 
 			// Add all Moves to the Arc and set total cost
-			for(City transitCity : currentCity.pathTo(deliveryCity)) {
-				arc.addAction(new Move(transitCity));
+			for(Move move : atlante.getMoves(currentCity, deliveryCity)) {
+				arc.addAction(move);
 			}
-			arc.setCost(vehicle.costPerKm() * currentCity.distanceTo(deliveryCity));
+			arc.setCost(vehicle.costPerKm() * atlante.distance(currentCity, deliveryCity));
 
 			// Set proper costSoFar and depth for the new State
 			State end = new State(deliveryCity, TaskSet.copyOf(groppone), TaskSet.copyOf(pettera), 
-					arc, vehicle, costSoFar+arc.getCost(), this.depth+1, algo);
+					arc, vehicle, costSoFar+arc.getCost(), this.depth+1, algo, atlante);
 			
 			// Modify the new State, so that the smallest deliverable task figures as delivered
 			Task toDeliver = end.smallestDeliverableTask();
@@ -210,14 +212,14 @@ class State {
 			Arc arc = new Arc(this);
 
 			// Add all Moves to the Arc and set total cost
-			for(City transitCity : currentCity.pathTo(pickupCity)) {
-				arc.addAction(new Move(transitCity));
+			for(Move move : atlante.getMoves(currentCity, pickupCity)) {
+				arc.addAction(move);
 			}
-			arc.setCost(vehicle.costPerKm() * currentCity.distanceTo(pickupCity));
+			arc.setCost(vehicle.costPerKm() * atlante.distance(currentCity, pickupCity));
 
 			// Set proper costSoFar for the new State
 			State end = new State(pickupCity, TaskSet.copyOf(groppone), TaskSet.copyOf(pettera), 
-					arc, vehicle, costSoFar+arc.getCost(), this.depth+1, algo);
+					arc, vehicle, costSoFar+arc.getCost(), this.depth+1, algo, atlante);
 
 			// Modify the new State, so that "task" figures as picked up
 			end.pickupTask(taskToPickup);
@@ -287,7 +289,7 @@ class State {
 		
 		// Sweep all tasks to deliver
 		for(Task taskToDeliver : groppone) {
-			double cost = vehicle.costPerKm() * currentCity.distanceTo(taskToDeliver.deliveryCity);
+			double cost = vehicle.costPerKm() * atlante.distance(currentCity, taskToDeliver.deliveryCity);
 			
 			if(cost > this.heuristic) {
 				this.heuristic = cost;
@@ -296,8 +298,8 @@ class State {
 		
 		// Sweep all tasks to pick up
 		for(Task taskToPickup : pettera) {
-			double cost = vehicle.costPerKm() * currentCity.distanceTo(taskToPickup.pickupCity) +
-					vehicle.costPerKm() * taskToPickup.pickupCity.distanceTo(taskToPickup.deliveryCity);
+			double cost = vehicle.costPerKm() * atlante.distance(currentCity, taskToPickup.pickupCity) +
+					vehicle.costPerKm() * atlante.distance(taskToPickup.pickupCity, taskToPickup.deliveryCity);
 			
 			if(cost > this.heuristic) {
 				this.heuristic = cost;
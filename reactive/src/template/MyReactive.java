@@ -16,6 +16,7 @@ public class MyReactive implements ReactiveBehavior {
 	private Agent agent;
 	private Topology topo;
 	private TaskDistribution td;
+	private Atlante atlante;	// The distances between cities, built once
 
 	private int numActions;
 
@@ -38,6 +39,7 @@ public class MyReactive implements ReactiveBehavior {
 		this.agent = agent;
 		this.topo = topology;
 		this.td = td;
+		this.atlante = new Atlante(topology);
 		this.numActions = 0;
 		this.gamma = discount;
 		this.delta = distanceToOpt;
@@ -166,7 +168,7 @@ public class MyReactive implements ReactiveBehavior {
 				for(City dest : topo.cities()) {
 					City destCity = (dest == curr) ? null : dest;
 					states[vehicle.id()][curr.id][dest.id] = 
-							new State(curr, destCity, vehicle, topo, td);
+							new State(curr, destCity, vehicle, topo, td, atlante);
 				}
 			}
 		}
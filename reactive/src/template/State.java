@@ -19,14 +19,16 @@ class State {
 	private Vehicle vehicle;
 	private Topology topo;
 	private TaskDistribution td;
+	private Atlante atlante;	// The distances between cities, shared among states
 	
 	
-	public State(City currCity, City destCity, Vehicle vehicle, Topology topo, TaskDistribution td) {
+	public State(City currCity, City destCity, Vehicle vehicle, Topology topo, TaskDistribution td, Atlante atlante) {
 		this.currCity = currCity;
 		this.destCity = destCity;
 		this.vehicle = vehicle;
 		this.topo = topo;
 		this.td = td;
+		this.atlante = atlante;
 		
 		// Initialise value and bestAction
 		initStrategy();
@@ -124,7 +126,7 @@ class State {
 		double rew = 0.0;
 		City nextCity = getNextCity(action);
 		
-		rew -= currCity.distanceTo(nextCity) * vehicle.costPerKm();
+		rew -= atlante.distance(currCity, nextCity) * vehicle.costPerKm();
 		if(action == null) {
 			rew += getTaskReward();
 		}